@@ -0,0 +1,49 @@
+package nl.fokkinga.bb;
+
+import blackboard.data.course.Group;
+import blackboard.persist.Id;
+import blackboard.persist.PersistenceException;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * @author <a href="mailto:peter [at] fokkinga.nl">Peter Fokkinga</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UtilBenchmark {
+	Id grpId;
+	String text = "  Hello, World!  ";
+	String blank = "   ";
+
+	@Setup
+	public void setup() throws PersistenceException {
+		grpId = Id.generateId(Group.DATA_TYPE, 1234567L);
+	}
+
+	@Benchmark
+	public long toNumber() {
+		return Util.toNumber(grpId);
+	}
+
+	@Benchmark
+	public boolean isEmptyText() {
+		return Util.isEmpty(text);
+	}
+
+	@Benchmark
+	public boolean isEmptyBlank() {
+		return Util.isEmpty(blank);
+	}
+
+	@Benchmark
+	public String makeSafe() {
+		return Util.makeSafe(text);
+	}
+}
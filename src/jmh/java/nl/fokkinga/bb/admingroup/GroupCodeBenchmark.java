@@ -0,0 +1,85 @@
+package nl.fokkinga.bb.admingroup;
+
+import blackboard.data.ValidationException;
+import blackboard.data.ValidationWarning;
+import blackboard.data.course.Course;
+import blackboard.data.course.Group;
+import blackboard.persist.Id;
+import blackboard.persist.PersistenceException;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * @author <a href="mailto:peter [at] fokkinga.nl">Peter Fokkinga</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GroupCodeBenchmark {
+	GroupCode sourcedCode, generatedCode;
+	AdminGroup grp;
+
+	@Setup
+	public void setup() throws PersistenceException {
+		Id crsId = Id.generateId(Course.DATA_TYPE, 42L);
+		Id grpId = Id.generateId(Group.DATA_TYPE, 1234567L);
+
+		sourcedCode = new GroupCode();
+		sourcedCode.setCourseId(crsId);
+		sourcedCode.setGroupId(grpId);
+		sourcedCode.setSourcedId("sis", "2015-fall-MATH101-03");
+
+		generatedCode = new GroupCode();
+		generatedCode.setCourseId(crsId);
+		generatedCode.setGroupId(grpId);
+
+		grp = new AdminGroup();
+		grp.setId(grpId);
+		grp.setCourseId(crsId);
+		grp.setTitle("MATH101 section 3");
+		grp.setGroupCode(sourcedCode);
+	}
+
+	@Benchmark
+	public String getBatchUid() {
+		return sourcedCode.getBatchUid();
+	}
+
+	@Benchmark
+	public String getGeneratedBatchUid() {
+		return generatedCode.getBatchUid();
+	}
+
+	@Benchmark
+	public long extractPk1() {
+		return GroupCode.extractPk1("bblearn#1234567");
+	}
+
+	@Benchmark
+	public long extractPk1NoMatch() {
+		return GroupCode.extractPk1("sis#2015-fall-MATH101-03");
+	}
+
+	@Benchmark
+	public GroupCode validateGroupCode() throws ValidationException {
+		sourcedCode.validate();
+		return sourcedCode;
+	}
+
+	@Benchmark
+	public List<ValidationWarning> checkGroupCode() {
+		return GroupValidator.get().check(sourcedCode);
+	}
+
+	@Benchmark
+	public AdminGroup validateAdminGroup() throws ValidationException {
+		grp.validate();
+		return grp;
+	}
+}
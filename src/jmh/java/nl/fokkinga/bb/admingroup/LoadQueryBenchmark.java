@@ -0,0 +1,45 @@
+package nl.fokkinga.bb.admingroup;
+
+import blackboard.persist.PersistenceException;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Unmarshalling of the group + group code join, driven by a synthetic result
+ * set; each operation is one row, each invocation a fresh query of
+ * {@link #ROWS} rows.
+ *
+ * @author <a href="mailto:peter [at] fokkinga.nl">Peter Fokkinga</a>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoadQueryBenchmark {
+	static final int ROWS = 100;
+	ResultSet rst;
+
+	@Setup
+	public void setup() {
+		rst = SyntheticResultSet.create();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ROWS)
+	public void processRow(Blackhole bh) throws SQLException, PersistenceException {
+		AdminGroupDAO.LoadGroupWithGroupCodeQuery query =
+				new AdminGroupDAO.LoadGroupWithGroupCodeQuery(AdminGroup.MAP, "ag", "gc");
+		for (int i = 0; i < ROWS; i++) {
+			rst.next();
+			query.processRow(rst);
+		}
+		bh.consume(query.getResults());
+	}
+}
@@ -0,0 +1,68 @@
+package nl.fokkinga.bb.admingroup;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+
+
+/**
+ * A {@link ResultSet} that returns a plausible value for any column, so the
+ * unmarshalling code can be exercised without a database. Columns are
+ * recognised by (part of) their name, columns asked for by index get a
+ * generic value.
+ *
+ * @author <a href="mailto:peter [at] fokkinga.nl">Peter Fokkinga</a>
+ */
+class SyntheticResultSet implements InvocationHandler {
+	private static final Timestamp NOW = new Timestamp(System.currentTimeMillis());
+	private long row = 0;
+
+
+	static ResultSet create() {
+		return (ResultSet) Proxy.newProxyInstance(SyntheticResultSet.class.getClassLoader(),
+				new Class<?>[] { ResultSet.class }, new SyntheticResultSet());
+	}
+
+
+	@Override public Object invoke(Object proxy, Method method, Object[] args) {
+		String name = method.getName();
+		String column = (args != null && args.length > 0 && args[0] instanceof String)
+				? ((String) args[0]).toLowerCase() : "";
+		switch (name) {
+			case "next":
+				row++;
+				return true;
+			case "wasNull":
+			case "isClosed":
+				return false;
+			case "findColumn":
+				return 1;
+			case "getString":
+				if (column.contains("batch_uid")) {
+					return "sis#2015-fall-MATH101-" + row;
+				}
+				return column.endsWith("_ind") ? "Y" : "Synthetic group " + row;
+			case "getLong":
+				return column.contains("crsmain") ? 42L : 1000L + row;
+			case "getInt":
+				return column.contains("crsmain") ? 42 : (int) (1000 + row);
+			case "getShort":
+				return (short) 1;
+			case "getBoolean":
+				return true;
+			case "getTimestamp":
+			case "getObject":
+				return NOW;
+			case "hashCode":
+				return System.identityHashCode(proxy);
+			case "equals":
+				return proxy == args[0];
+			case "toString":
+				return "SyntheticResultSet{row=" + row + "}";
+			default:
+				return null;
+		}
+	}
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2015 Peter R. Fokkinga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.fokkinga.bb;
+
+
+/**
+ * Parses and formats Blackboard ids ("_1234_1") and composite keys
+ * ("source#id") directly from their characters, without creating
+ * intermediate strings or boxed numbers.
+ *
+ * @author <a href="mailto:peter [at] fokkinga.nl">Peter Fokkinga</a>
+ */
+public final class IdCodec {
+	/**
+	 * Returned by the parse methods when their input is malformed.
+	 */
+	public static final long INVALID = -1;
+
+	/**
+	 * Separates the "source" and "id" parts of a composite key; same as
+	 * {@code GroupCode.SOURCEDID_SEPARATOR}.
+	 */
+	public static final char SEPARATOR = '#';
+
+	private IdCodec() {}
+
+
+	/**
+	 * Parses a non-negative decimal number from part of a character sequence.
+	 *
+	 * @param cs    the characters to parse
+	 * @param start index of the first digit
+	 * @param end   index after the last digit
+	 * @return the number or {@link #INVALID} when the range is empty, contains
+	 *         anything but the digits 0-9 or does not fit in a long
+	 */
+	public static long parseDigits(CharSequence cs, int start, int end) {
+		if (start >= end || end - start > 19) {
+			return INVALID;
+		}
+		long value = 0;
+		for (int i = start; i < end; i++) {
+			char c = cs.charAt(i);
+			if (c < '0' || c > '9') {
+				return INVALID;
+			}
+			value = value * 10 + (c - '0');
+			if (value < 0) {
+				return INVALID; // overflow
+			}
+		}
+		return value;
+	}
+
+
+	/**
+	 * Parses the numeric part of the external representation of an Id. When
+	 * the representation looks like "_1234_1" the result is 1234; plain
+	 * numbers (like the representation of a new Id) are parsed as is.
+	 *
+	 * @param externalId the external representation of an Id
+	 * @return the numeric part or {@link #INVALID} when the input is NULL or
+	 *         malformed
+	 */
+	public static long parsePk1(CharSequence externalId) {
+		if (externalId == null) {
+			return INVALID;
+		}
+		int len = externalId.length();
+		if (len > 0 && externalId.charAt(0) == '_') {
+			int end = len - 1;
+			while (end > 0 && externalId.charAt(end) != '_') {
+				end--;
+			}
+			return parseDigits(externalId, 1, end);
+		}
+		return parseDigits(externalId, 0, len);
+	}
+
+
+	/**
+	 * @param uid a batch_uid
+	 * @return the index of the first {@link #SEPARATOR} or -1 if the batch_uid
+	 *         is NULL or does not contain the separator
+	 */
+	public static int separatorIndex(CharSequence uid) {
+		if (uid != null) {
+			for (int i = 0, len = uid.length(); i < len; i++) {
+				if (uid.charAt(i) == SEPARATOR) {
+					return i;
+				}
+			}
+		}
+		return -1;
+	}
+
+
+	/**
+	 * Parses the numeric "id" part of a composite key with the given source,
+	 * like "bblearn#1234".
+	 *
+	 * @param uid    the composite key
+	 * @param source the expected "source" part
+	 * @return the numeric "id" part or {@link #INVALID} when the batch_uid is
+	 *         NULL, has a different source or the "id" part is not a number
+	 */
+	public static long parseSourcedPk1(CharSequence uid, String source) {
+		int srcLen = source.length();
+		if (uid == null || uid.length() <= srcLen + 1 || uid.charAt(srcLen) != SEPARATOR) {
+			return INVALID;
+		}
+		for (int i = 0; i < srcLen; i++) {
+			if (uid.charAt(i) != source.charAt(i)) {
+				return INVALID;
+			}
+		}
+		return parseDigits(uid, srcLen + 1, uid.length());
+	}
+
+
+	/**
+	 * @param source the "source" part of the composite key
+	 * @param pk1    the "id" part of the composite key
+	 * @return the composite key "source#pk1"
+	 */
+	public static String formatSourcedId(String source, long pk1) {
+		return new StringBuilder(source.length() + 20).append(source).append(SEPARATOR).append(pk1).toString();
+	}
+
+
+	/**
+	 * @param cs the characters to check; may be NULL
+	 * @return true if the input is NULL or only consists of whitespace (any
+	 *         character up to and including the space, like {@link String#trim})
+	 */
+	public static boolean isBlank(CharSequence cs) {
+		if (cs != null) {
+			for (int i = 0, len = cs.length(); i < len; i++) {
+				if (cs.charAt(i) > ' ') {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+}
@@ -49,7 +49,7 @@ public final class Util {
 	 *         contains whitespace
 	 */
 	public static boolean isEmpty(String str) {
-		return (str == null) || (str.trim().length() == 0);
+		return IdCodec.isBlank(str);
 	}
 
 
@@ -61,7 +61,7 @@ public final class Util {
 	 *         contains whitespace
 	 */
 	public static boolean notEmpty(String str) {
-		return (str != null) && (str.trim().length() > 0);
+		return !IdCodec.isBlank(str);
 	}
 
 
@@ -73,7 +73,8 @@ public final class Util {
 	 * @param id can be any type of Id (courseId, userId, groupId, etc)
 	 * @return numeric representation for the Id or UNSET_ID_VALUE if the
 	 *         Id is Id.UNSET_ID
-	 * @throws NumberFormatException when the given ID is NULL
+	 * @throws NumberFormatException when the given ID is NULL or its external
+	 *         representation is not numeric
 	 * @see #UNSET_ID_VALUE
 	 */
 	public static long toNumber(Id id) throws NumberFormatException {
@@ -83,8 +84,10 @@ public final class Util {
 			return UNSET_ID_VALUE;
 		}
 		String externalId = id.toExternalString();
-		return externalId.startsWith("_")
-				? Long.valueOf(externalId.substring(1, externalId.lastIndexOf('_')))
-				: Long.valueOf(externalId);
+		long pk1 = IdCodec.parsePk1(externalId);
+		if (pk1 == IdCodec.INVALID) {
+			throw new NumberFormatException("not a numeric id: " + externalId);
+		}
+		return pk1;
 	}
 }
\ No newline at end of file
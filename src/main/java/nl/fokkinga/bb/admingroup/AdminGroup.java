@@ -18,12 +18,20 @@ package nl.fokkinga.bb.admingroup;
 
 import blackboard.data.ValidationException;
 import blackboard.data.ValidationWarning;
+import blackboard.data.course.Course;
 import blackboard.data.course.Group;
 import blackboard.persist.Id;
+import blackboard.persist.PersistenceException;
+import blackboard.persist.course.GroupDbLoader;
 import blackboard.persist.impl.mapping.*;
 import blackboard.persist.impl.mapping.annotation.AnnotationMappingFactory;
+import com.google.common.base.Objects;
 import nl.fokkinga.bb.Util;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 import static nl.fokkinga.bb.Util.isEmpty;
@@ -50,9 +58,16 @@ public class AdminGroup extends Group {
 		MAP.addMapping(m);
 	}
 
-	private GroupCode groupCode = new GroupCode();
-	private boolean codesLoaded = false;
-	private boolean batchUidChanged = false;
+	// NULL until needed, the DAO sets the group code of a loaded group right away
+	private volatile GroupCode groupCode = null;
+	private volatile boolean codesLoaded = false;
+	private volatile GroupCodeBatch codeBatch = null;
+	// the state of the group and its group code as last read; NULL when unknown
+	private List<Object> persistedGroup = null;
+	private List<Object> persistedCode = null;
+	private boolean modified = false;
+	// the columns of a group restored from a view; NULL for a loaded or new group
+	private List<Object> restoredGroup = null;
 
 	public AdminGroup() {
 		super();
@@ -65,26 +80,167 @@ public class AdminGroup extends Group {
 	@Override public void setCourseId(Id crsId) {
 		// prevent Group.validate from throwing a NPE on a new object
 		super.setCourseId(crsId != null ? crsId : Id.UNSET_ID);
-		groupCode.setCourseId(crsId);
 	}
 
 
+	/*
+	 * called by the DAO right after the group has been read from the
+	 * database, so the current state is the persisted state
+	 */
 	void setGroupCode(GroupCode value) {
 		groupCode = value;
 		codesLoaded = true;
+		markPersisted();
 	}
 
-	synchronized GroupCode getGroupCode() {
-		if (!codesLoaded && Id.isValidPkId(getId())) {
-			List<GroupCode> codes = GroupCodeDAO.get().loadByGroupId(getId());
-			if (codes.size() > 0) {
-				groupCode = codes.get(0);
-			}
+	/*
+	 * a group with the columns of the view, without querying the database;
+	 * the other properties of the group (like the description) are not
+	 * known, see groupToWrite
+	 */
+	static AdminGroup fromView(GroupView view) throws PersistenceException {
+		AdminGroup grp = new AdminGroup();
+		grp.setId(JdbcSupport.toId(Group.DATA_TYPE, view.getPk1()));
+		grp.setCourseId(JdbcSupport.toId(Course.DATA_TYPE, view.getCoursePk1()));
+		grp.setSetId(view.getSetPk1() > 0 ? JdbcSupport.toId(Group.DATA_TYPE, view.getSetPk1()) : Id.UNSET_ID);
+		grp.setGroupSet(view.isGroupSet());
+		grp.setTitle(view.getTitle());
+		grp.setIsAvailable(view.isAvailable());
+		GroupCode code = new GroupCode();
+		if (view.getCodePk1() > 0) {
+			code.setId(JdbcSupport.toId(GroupCode.DATA_TYPE, view.getCodePk1()));
+			code.setStoredBatchUid(view.getBatchUid());
+		}
+		code.setGroupId(grp.getId());
+		code.setCourseId(grp.getCourseId());
+		grp.setGroupCode(code);
+		grp.restoredGroup = grp.persistedGroup;
+		return grp;
+	}
+
+
+	/*
+	 * the group to hand to Blackboard's persister. A group restored from a
+	 * view lacks the properties that are not in the view, writing it as is
+	 * would clear those; instead the group is loaded and the tracked columns
+	 * that have been changed since the restore are applied to it.
+	 */
+	Group groupToWrite() throws PersistenceException {
+		if (restoredGroup == null) {
+			return this;
+		}
+		if (modified) {
+			throw new IllegalStateException(this + " was restored from a cache, load it by ID to change properties"
+					+ " that are not tracked");
+		}
+		StatementBudget.count("GroupDbLoader.loadById");
+		Group grp = GroupDbLoader.Default.getInstance().loadById(getId());
+		List<Object> current = groupColumns();
+		if (changed(current, 0)) {
+			grp.setCourseId(getCourseId());
+		}
+		if (changed(current, 1)) {
+			grp.setSetId(getSetId());
+		}
+		if (changed(current, 2)) {
+			grp.setGroupSet(isGroupSet());
+		}
+		if (changed(current, 3)) {
+			grp.setTitle(getTitle());
+		}
+		if (changed(current, 4)) {
+			grp.setDescription(getDescription());
+		}
+		if (changed(current, 5)) {
+			grp.setIsAvailable(getIsAvailable());
+		}
+		return grp;
+	}
+
+	private boolean changed(List<Object> current, int column) {
+		return !Objects.equal(restoredGroup.get(column), current.get(column));
+	}
+
+
+	/*
+	 * called by GroupCodeBatch; unlike setGroupCode the group itself may
+	 * have been changed since it was loaded
+	 */
+	synchronized void setLoadedGroupCode(GroupCode value) {
+		codeBatch = null;
+		if (!codesLoaded) {
+			groupCode = (value != null) ? value : new GroupCode();
 			codesLoaded = true;
+			if (value != null) {
+				persistedCode = codeColumns();
+			}
+		}
+	}
+
+	boolean isGroupCodeLoaded() { return codesLoaded; }
+
+	void setGroupCodeBatch(GroupCodeBatch batch) { codeBatch = batch; }
+
+	/*
+	 * no locking once the group code has been loaded, and nothing is written
+	 * unless the group got another ID or course since the last call, so an
+	 * unchanged group can be read by many threads at the same time; the
+	 * IDs of the group code are volatile, the lock is only taken to update
+	 * them
+	 */
+	GroupCode getGroupCode() {
+		GroupCode code = codesLoaded ? groupCode : loadGroupCode();
+		if (!Objects.equal(code.getGroupId(), getId()) || !Objects.equal(code.getCourseId(), getCourseId())) {
+			synchronized (this) {
+				// a new group gets its ID when it is persisted
+				if (!Objects.equal(code.getGroupId(), getId())) {
+					code.setGroupId(getId());
+				}
+				if (!Objects.equal(code.getCourseId(), getCourseId())) {
+					code.setCourseId(getCourseId());
+				}
+			}
+		}
+		return code;
+	}
+
+	private GroupCode loadGroupCode() {
+		// outside of the lock of this group, the batch locks all of its groups
+		GroupCodeBatch batch = codeBatch;
+		if (batch != null) {
+			batch.load();
+		}
+		synchronized (this) {
+			if (!codesLoaded) {
+				// a group without ID has no group code in the database yet
+				List<GroupCode> codes = Id.isValidPkId(getId())
+						? GroupCodeDAO.get().loadByGroupId(getId())
+						: Collections.<GroupCode>emptyList();
+				groupCode = codes.isEmpty() ? new GroupCode() : codes.get(0);
+				codesLoaded = true;
+				if (!codes.isEmpty()) {
+					persistedCode = codeColumns();
+				}
+			}
+			return groupCode;
 		}
-		groupCode.setGroupId(getId());
-		groupCode.setCourseId(getCourseId());
-		return groupCode;
+	}
+
+
+	/**
+	 * Lets the groups load their group codes together. Groups that have been
+	 * loaded by an {@link AdminGroupManager} already have their group code,
+	 * but other groups (like groups restored from a cache or created by a
+	 * subclass) load it the first time it is needed, like when calling
+	 * {@link #getBatchUid()} or {@link #toString()}. After this call the first
+	 * group that needs its group code loads those of all the given groups
+	 * with a single query (per {@link JdbcSupport#MAX_IN_LIST} groups), instead
+	 * of a query per group.
+	 *
+	 * @param grps the groups that should load their group codes together
+	 */
+	public static void loadGroupCodesTogether(Collection<? extends AdminGroup> grps) {
+		GroupCodeBatch.attach(grps);
 	}
 
 
@@ -101,13 +257,11 @@ public class AdminGroup extends Group {
 	 *         are not valid
 	 */
 	public void setSourcedId(String src, String id) {
-		groupCode.setSourcedId(src, id);
+		getGroupCode().setSourcedId(src, id);
 	}
 
 	public void setBatchUid(String batchUid) {
-		String safeUid = Util.makeSafe(batchUid);
-		batchUidChanged = batchUidChanged || !getGroupCode().getBatchUid().equals(safeUid);
-		getGroupCode().setBatchUid(safeUid);
+		getGroupCode().setBatchUid(Util.makeSafe(batchUid));
 	}
 
 
@@ -123,6 +277,87 @@ public class AdminGroup extends Group {
 	public boolean isNew() { return !Id.isValidPkId(getId()); }
 
 
+	/**
+	 * Tells the group that a property has been changed which is not detected
+	 * automatically, so the next persist will write the group. Changes of the
+	 * course, group set, title, description, availability and batch_uid are
+	 * detected by comparing with the state at load time; call this method
+	 * after changing any other property (like the self-enrollment or signup
+	 * settings) or after changing an object returned by a getter in place.
+	 */
+	public void markModified() { modified = true; }
+
+
+	/**
+	 * Check whether persisting this group would write anything to the
+	 * database. Only a group as it has been loaded can be proven clean: once
+	 * it has been written the caller's transaction may still roll back, so
+	 * the group is dirty until it is loaded again.
+	 *
+	 * @return true when the group is new, has been changed since it was
+	 * loaded, or has been persisted since it was loaded
+	 * @see #markModified()
+	 */
+	public boolean isDirty() { return isGroupDirty() || isGroupCodeDirty(); }
+
+
+	boolean isGroupDirty() {
+		return isNew() || modified || persistedGroup == null || !persistedGroup.equals(groupColumns());
+	}
+
+
+	boolean isGroupCodeDirty() {
+		// a group without group code gets one with a generated batch_uid
+		return !Id.isValidPkId(getGroupCode().getId()) || persistedCode == null
+				|| !persistedCode.equals(codeColumns());
+	}
+
+
+	/**
+	 * Records the current state as the state in the database; called after
+	 * loading.
+	 */
+	private void markPersisted() {
+		persistedGroup = groupColumns();
+		persistedCode = codeColumns();
+		modified = false;
+	}
+
+
+	/**
+	 * Forgets the state in the database; called after a write, which is
+	 * only final when the caller's transaction commits.
+	 */
+	void markWritten() {
+		persistedGroup = null;
+		persistedCode = null;
+		modified = false;
+	}
+
+
+	/*
+	 * plain getter calls, this runs for every group that is loaded; keep in
+	 * line with the documentation of markModified and with groupToWrite
+	 */
+	private List<Object> groupColumns() {
+		return Arrays.<Object>asList(getCourseId(), getSetId(), isGroupSet(), getTitle(), getDescription(), getIsAvailable());
+	}
+
+
+	private List<Object> codeColumns() {
+		GroupCode code = getGroupCode();
+		return Arrays.<Object>asList(code.getId(), code.getGroupId(), code.getCourseId(), code.getBatchUid());
+	}
+
+
+	/**
+	 * @return an immutable summary of the current state of this group
+	 */
+	public GroupView toView() {
+		return new GroupView(this, getGroupCode());
+	}
+
+
 	/**
 	 * Check whether this group be persisted. Requirements of a valid group
 	 * object are:
@@ -141,23 +376,32 @@ public class AdminGroup extends Group {
 	 * @see GroupCode#validate() for requirements on the group code
 	 */
 	@Override public void validate() throws ValidationException {
-		ValidationException ve = new ValidationException();
-		try {
-			super.validate();
-		} catch (ValidationException e) {
-			ve.getWarnings().addAll(e.getWarnings());
+		List<ValidationWarning> warnings = check();
+		if (!warnings.isEmpty()) {
+			throw GroupValidator.toException(warnings);
 		}
+	}
+
+
+	/**
+	 * Same checks as {@link #validate()}, but the failed requirements are
+	 * returned instead of thrown.
+	 *
+	 * @return the failed requirements; an empty list when the group is valid
+	 */
+	List<ValidationWarning> check() {
+		List<ValidationWarning> warnings;
 		try {
-			getGroupCode().validate();
+			super.validate();
+			warnings = getGroupCode().check();
 		} catch (ValidationException e) {
-			ve.getWarnings().addAll(e.getWarnings());
+			warnings = new ArrayList<>(e.getWarnings());
+			warnings.addAll(getGroupCode().check());
 		}
 		if (isEmpty(getTitle())) {
-			ve.addWarning(new ValidationWarning("Required field not set", "Title must not be empty."));
-		}
-		if (!ve.getWarnings().isEmpty()) {
-			throw ve;
+			warnings.add(new ValidationWarning("Required field not set", "Title must not be empty."));
 		}
+		return warnings;
 	}
 
 
@@ -16,6 +16,7 @@
 
 package nl.fokkinga.bb.admingroup;
 
+import blackboard.data.course.Group;
 import blackboard.persist.*;
 import blackboard.persist.dao.impl.SimpleDAO;
 import blackboard.persist.impl.*;
@@ -24,11 +25,17 @@ import blackboard.platform.query.Criteria;
 import blackboard.platform.query.CriterionBuilder;
 import com.google.common.base.Supplier;
 import com.google.common.base.Suppliers;
+import com.google.common.collect.Iterables;
+import nl.fokkinga.bb.Util;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.ArrayList;
-import java.util.List;
+import java.sql.Statement;
+import java.util.*;
+
+import static nl.fokkinga.bb.Util.notEmpty;
 
 
 /**
@@ -37,6 +44,38 @@ import java.util.List;
 class AdminGroupDAO extends SimpleDAO<AdminGroup> {
 	enum Selector { GROUPS, GROUP_SETS, BOTH }
 
+	/**
+	 * Selects the pk1 of the groups in the group sets whose pk1 values take
+	 * the place of "%s".
+	 */
+	static final String GROUP_SET_CHILDREN_SQL = "SELECT pk1 FROM groups WHERE set_pk1 IN (%s)";
+
+	private static final String MOVE_GROUP_SQL = "UPDATE groups SET set_pk1=? WHERE pk1=?";
+
+	// those of the groups whose pk1 values take the place of "%s" that are part of the group set
+	private static final String IN_GROUP_SET_SQL = "SELECT pk1 FROM groups WHERE set_pk1=? AND pk1 IN (%s)";
+
+	// only the columns of a GroupView, nothing else is read or unmarshalled
+	private static final String VIEWS_SQL = "SELECT g.pk1, g.crsmain_pk1, g.set_pk1, g.group_set_ind, g.available_ind,"
+			+ " g.group_name, gc.batch_uid, gc.pk1 FROM groups g LEFT OUTER JOIN bb_groupcode gc ON gc.group_pk1=g.pk1"
+			+ " WHERE g.crsmain_pk1=?";
+
+	private static final JdbcSupport.RowMapper<GroupView> VIEW_MAPPER = new JdbcSupport.RowMapper<GroupView>() {
+		public GroupView map(ResultSet rst) throws SQLException {
+			// getLong returns 0 for a NULL set_pk1 or gc.pk1, which is what a view expects
+			return new GroupView(rst.getLong(1), rst.getLong(2), rst.getLong(3), rst.getString(6), rst.getLong(8),
+					rst.getString(7), "Y".equals(rst.getString(4)), "Y".equals(rst.getString(5)));
+		}
+	};
+
+	/*
+	 * only moves a group that isn't in the group set yet, and only when the
+	 * target is a group set of the same course
+	 */
+	private static final String MOVE_GROUP_CHECKED_SQL = MOVE_GROUP_SQL
+			+ " AND group_set_ind='N' AND (set_pk1 IS NULL OR set_pk1<>?)"
+			+ " AND crsmain_pk1=(SELECT s.crsmain_pk1 FROM groups s WHERE s.pk1=? AND s.group_set_ind='Y')";
+
 	private static final Supplier<AdminGroupDAO> DAO_SUPPLIER = Suppliers.memoize(
 			new Supplier<AdminGroupDAO>() {
 				public AdminGroupDAO get() {
@@ -56,14 +95,210 @@ class AdminGroupDAO extends SimpleDAO<AdminGroup> {
 
 
 	public boolean makeGroupMemberOfGroupSet(Id grpId, Id grpSetId) {
-		JdbcQueryHelper query = new JdbcQueryHelper("UPDATE groups SET set_pk1=? WHERE pk1=?");
-		query.setId(1, grpSetId);
-		query.setId(2, grpId);
-		return query.executeUpdate() == 1;
+		return JdbcSupport.update("AdminGroupDAO.makeGroupMemberOfGroupSet", MOVE_GROUP_SQL, grpSetId, grpId) == 1;
+	}
+
+
+	/**
+	 * Bulk variant of {@link #makeGroupMemberOfGroupSet}: per chunk of
+	 * {@link JdbcSupport#MAX_IN_LIST} groups the updates are sent in one
+	 * JDBC batch. Each update checks for itself that the target is a group
+	 * set in the same course as the group, and the moved groups are the
+	 * ones whose update changed a row, so a concurrent move can't end up in
+	 * the result. Some drivers don't report the row count of each statement
+	 * in a batch ({@link Statement#SUCCESS_NO_INFO}); for those the moved
+	 * groups are the ones that are part of the group set after the batch
+	 * but were not before it. To be able to tell, the members of the group
+	 * set are read before each chunk, and after it when needed.
+	 *
+	 * @param grpIds   the IDs of the groups to move
+	 * @param grpSetId the ID of the group set that will be parent for the groups
+	 * @return the IDs of the groups that have been moved, in the order of
+	 * {@code grpIds}; groups that don't exist, are group sets, are part of
+	 * another course or already were in the group set are not included
+	 */
+	public List<Id> makeGroupsMemberOfGroupSet(Collection<Id> grpIds, final Id grpSetId) {
+		final Set<Id> unique = new LinkedHashSet<>(grpIds);
+		if (unique.isEmpty()) {
+			return new ArrayList<>(0);
+		}
+		return JdbcSupport.execute("AdminGroupDAO.makeGroupsMemberOfGroupSet", new JdbcSupport.Work<List<Id>>() {
+			public List<Id> execute(Connection con) throws SQLException {
+				List<Id> moved = new ArrayList<>();
+				try (PreparedStatement stmt = con.prepareStatement(MOVE_GROUP_CHECKED_SQL)) {
+					for (List<Id> chunk : Iterables.partition(unique, JdbcSupport.MAX_IN_LIST)) {
+						Set<Long> before = loadInGroupSet(con, chunk, grpSetId);
+						for (Id grpId : chunk) {
+							JdbcSupport.setId(stmt, 1, grpSetId);
+							JdbcSupport.setId(stmt, 2, grpId);
+							JdbcSupport.setId(stmt, 3, grpSetId);
+							JdbcSupport.setId(stmt, 4, grpSetId);
+							stmt.addBatch();
+						}
+						int[] counts = stmt.executeBatch();
+						Set<Long> after = null;
+						for (int i = 0; i < counts.length; i++) {
+							if (counts[i] == Statement.SUCCESS_NO_INFO) {
+								if (after == null) {
+									after = loadInGroupSet(con, chunk, grpSetId);
+								}
+								Long pk1 = Util.toNumber(chunk.get(i));
+								if (after.contains(pk1) && !before.contains(pk1)) {
+									moved.add(chunk.get(i));
+								}
+							} else if (counts[i] > 0) {
+								moved.add(chunk.get(i));
+							}
+						}
+					}
+				}
+				return moved;
+			}
+		});
+	}
+
+
+	private static Set<Long> loadInGroupSet(Connection con, List<Id> grpIds, Id grpSetId) throws SQLException {
+		Set<Long> result = new HashSet<>();
+		try (PreparedStatement stmt = con.prepareStatement(
+				String.format(IN_GROUP_SET_SQL, JdbcSupport.placeholders(grpIds.size())))) {
+			JdbcSupport.setId(stmt, 1, grpSetId);
+			int idx = 2;
+			for (Id id : grpIds) {
+				JdbcSupport.setId(stmt, idx++, id);
+			}
+			try (ResultSet rst = stmt.executeQuery()) {
+				while (rst.next()) {
+					result.add(rst.getLong(1));
+				}
+			}
+		}
+		return result;
+	}
+
+
+	/**
+	 * Loads the IDs of the groups that are part of the given group sets, with
+	 * one query per {@link JdbcSupport#MAX_IN_LIST} group sets. Nothing but
+	 * the pk1 column is read.
+	 *
+	 * @param grpSetIds the IDs of the group sets
+	 * @return the IDs of the groups in the group sets
+	 */
+	public List<Id> loadIdsByGroupSetIds(Collection<Id> grpSetIds) {
+		final Set<Id> unique = new LinkedHashSet<>(grpSetIds);
+		if (unique.isEmpty()) {
+			return new ArrayList<>(0);
+		}
+		return JdbcSupport.execute("AdminGroupDAO.loadIdsByGroupSetIds", new JdbcSupport.Work<List<Id>>() {
+			public List<Id> execute(Connection con) throws SQLException, PersistenceException {
+				List<Id> result = new ArrayList<>();
+				for (List<Id> chunk : Iterables.partition(unique, JdbcSupport.MAX_IN_LIST)) {
+					String sql = String.format(GROUP_SET_CHILDREN_SQL, JdbcSupport.placeholders(chunk.size()));
+					try (PreparedStatement stmt = con.prepareStatement(sql)) {
+						int idx = 1;
+						for (Id id : chunk) {
+							JdbcSupport.setId(stmt, idx++, id);
+						}
+						try (ResultSet rst = stmt.executeQuery()) {
+							while (rst.next()) {
+								result.add(JdbcSupport.toId(Group.DATA_TYPE, rst.getLong(1)));
+							}
+						}
+					}
+				}
+				return result;
+			}
+		});
+	}
+
+
+	/**
+	 * Loads the group together with its group code in a single query.
+	 *
+	 * @param grpId the ID of the group or group set
+	 * @return the group or group set
+	 * @throws KeyNotFoundException when no group exists with the given ID
+	 */
+	@Override public AdminGroup loadById(Id grpId) throws KeyNotFoundException {
+		List<AdminGroup> groups = loadByIds(Collections.singleton(grpId));
+		if (groups.isEmpty()) {
+			throw new KeyNotFoundException("no group with id " + grpId);
+		}
+		return groups.get(0);
+	}
+
+
+	/**
+	 * Loads groups together with their group codes; the IDs are sent to the
+	 * database in chunks of at most {@link JdbcSupport#MAX_IN_LIST} values.
+	 *
+	 * @param grpIds the IDs of the groups and/or group sets
+	 * @return the groups in the order of the given IDs; IDs for which no
+	 * group exists are skipped
+	 */
+	public List<AdminGroup> loadByIds(Collection<Id> grpIds) {
+		Map<Id, AdminGroup> found = new HashMap<>(grpIds.size() * 2);
+		for (List<Id> chunk : Iterables.partition(new LinkedHashSet<>(grpIds), JdbcSupport.MAX_IN_LIST)) {
+			SimpleJoinQuery query = new LoadGroupWithGroupCodeQuery(getDAOSupport().getMap(), "ag", "gc");
+			Criteria criteria = query.getCriteria();
+			CriterionBuilder agBuilder = criteria.createBuilder("ag");
+			criteria.add(agBuilder.in("id", chunk));
+			List<AdminGroup> groups = JdbcSupport.loadList("AdminGroupDAO.loadByIds", getDAOSupport(), query);
+			for (AdminGroup grp : groups) {
+				// a group with more than one group code is returned more than once
+				if (!found.containsKey(grp.getId())) {
+					found.put(grp.getId(), grp);
+				}
+			}
+		}
+		List<AdminGroup> result = new ArrayList<>(found.size());
+		for (Id grpId : new LinkedHashSet<>(grpIds)) {
+			AdminGroup grp = found.get(grpId);
+			if (grp != null) {
+				result.add(grp);
+			}
+		}
+		return result;
+	}
+
+
+	/**
+	 * Loads all groups without their group codes; the group codes are loaded
+	 * together when the first one is needed.
+	 *
+	 * @return all groups and group sets
+	 * @see AdminGroup#loadGroupCodesTogether
+	 */
+	@Override public List<AdminGroup> loadAll() {
+		StatementBudget.count("AdminGroupDAO.loadAll");
+		long start = OperationMetrics.start();
+		List<AdminGroup> groups = null;
+		try {
+			groups = super.loadAll();
+		} finally {
+			OperationMetrics.record("AdminGroupDAO.loadAll", start, OperationMetrics.rows(groups), groups == null);
+		}
+		AdminGroup.loadGroupCodesTogether(groups);
+		return groups;
 	}
 
 
 	public List<AdminGroup> loadByBatchUid(String uid) {
+		return loadByBatchUid(uid, 0);
+	}
+
+
+	/**
+	 * Like {@link #loadByBatchUid(String)}, but reads no more than the given
+	 * number of rows; a caller that only needs to know whether the batch_uid
+	 * is unique does not have to load all duplicates.
+	 *
+	 * @param uid     the batch_uid to search for
+	 * @param maxRows the maximum number of rows to read, 0 for no maximum
+	 * @return the groups having the batch_uid, at most {@code maxRows}
+	 */
+	public List<AdminGroup> loadByBatchUid(String uid, int maxRows) {
 		long grpPk1 = GroupCode.extractPk1(uid);
 		if (grpPk1 > 0) {
 			List<AdminGroup> result = new ArrayList<>(1);
@@ -78,31 +313,263 @@ class AdminGroupDAO extends SimpleDAO<AdminGroup> {
 			}
 			return result;
 		}
-		SimpleJoinQuery query = new LoadGroupWithGroupCodeQuery(getDAOSupport().getMap(), "ag", "gc");
+		LoadGroupWithGroupCodeQuery query = new LoadGroupWithGroupCodeQuery(getDAOSupport().getMap(), "ag", "gc");
 		Criteria criteria = query.getCriteria();
 		CriterionBuilder gcBuilder = criteria.createBuilder("gc");
 		criteria.add(gcBuilder.equal("BatchUID", uid));
-		return getDAOSupport().loadList(query);
+		query.setMaxRows(maxRows);
+		return JdbcSupport.loadList("AdminGroupDAO.loadByBatchUid", getDAOSupport(), query);
+	}
+
+
+	/**
+	 * Multi-get variant of {@link #loadByBatchUid(String)}; the batch_uid
+	 * values are sent to the database in chunks of at most
+	 * {@link JdbcSupport#MAX_IN_LIST} values.
+	 *
+	 * @param uids the batch_uid values to search for
+	 * @return the groups found per batch_uid; batch_uid values for which no
+	 * group exists are not in the map
+	 */
+	public Map<String, List<AdminGroup>> loadByBatchUids(Collection<String> uids) {
+		Map<String, List<AdminGroup>> result = new HashMap<>();
+		Map<Long, String> pk1Uids = new LinkedHashMap<>();
+		Set<String> codeUids = new LinkedHashSet<>();
+		for (String uid : uids) {
+			long grpPk1 = GroupCode.extractPk1(uid);
+			if (grpPk1 > 0) {
+				pk1Uids.put(grpPk1, uid);
+			} else if (notEmpty(uid)) {
+				codeUids.add(uid);
+			}
+		}
+
+		for (List<String> chunk : Iterables.partition(codeUids, JdbcSupport.MAX_IN_LIST)) {
+			SimpleJoinQuery query = new LoadGroupWithGroupCodeQuery(getDAOSupport().getMap(), "ag", "gc");
+			Criteria criteria = query.getCriteria();
+			CriterionBuilder gcBuilder = criteria.createBuilder("gc");
+			criteria.add(gcBuilder.in("BatchUID", chunk));
+			List<AdminGroup> groups = JdbcSupport.loadList("AdminGroupDAO.loadByBatchUids", getDAOSupport(), query);
+			for (AdminGroup grp : groups) {
+				addTo(result, grp.getBatchUid(), grp);
+			}
+		}
+
+		if (!pk1Uids.isEmpty()) {
+			List<Id> grpIds = new ArrayList<>(pk1Uids.size());
+			try {
+				for (Long grpPk1 : pk1Uids.keySet()) {
+					grpIds.add(Id.generateId(AdminGroup.DATA_TYPE, grpPk1));
+				}
+			} catch (PersistenceException e) {
+				throw new PersistenceRuntimeException("loadByBatchUids(" + pk1Uids.values() + "): " + e.getMessage(), e);
+			}
+			for (AdminGroup grp : loadByIds(grpIds)) {
+				addTo(result, pk1Uids.get(Util.toNumber(grp.getId())), grp);
+			}
+		}
+		return result;
+	}
+
+
+	private static void addTo(Map<String, List<AdminGroup>> map, String uid, AdminGroup grp) {
+		List<AdminGroup> groups = map.get(uid);
+		if (groups == null) {
+			groups = new ArrayList<>(1);
+			map.put(uid, groups);
+		}
+		groups.add(grp);
 	}
 
 
 	public List<AdminGroup> loadByCourseId(Id crsId, Selector filter) {
-		SimpleJoinQuery query = new LoadGroupWithGroupCodeQuery(getDAOSupport().getMap(), "ag", "gc");
+		return JdbcSupport.loadList("AdminGroupDAO.loadByCourseId", getDAOSupport(), createCourseQuery(crsId, filter));
+	}
+
+
+	/**
+	 * Like {@link #loadByCourseId}, but creates a read-only view per group
+	 * instead of a group with a group code.
+	 *
+	 * @param crsId  the ID of the course
+	 * @param filter which kind of groups to load
+	 * @return the views of the groups
+	 */
+	public List<GroupView> loadViewsByCourseId(Id crsId, Selector filter) {
+		List<GroupView> rows;
+		if (filter == Selector.BOTH) {
+			rows = JdbcSupport.query("AdminGroupDAO.loadViewsByCourseId", VIEWS_SQL + " ORDER BY g.pk1", VIEW_MAPPER, crsId);
+		} else {
+			rows = JdbcSupport.query("AdminGroupDAO.loadViewsByCourseId", VIEWS_SQL + " AND g.group_set_ind=? ORDER BY g.pk1",
+					VIEW_MAPPER, crsId, filter == Selector.GROUP_SETS ? "Y" : "N");
+		}
+		// a group with more than one group code is returned on consecutive rows
+		List<GroupView> views = new ArrayList<>(rows.size());
+		for (GroupView view : rows) {
+			if (views.isEmpty() || views.get(views.size() - 1).getPk1() != view.getPk1()) {
+				views.add(view);
+			}
+		}
+		return views;
+	}
+
+
+	/**
+	 * Multi-course variant of {@link #loadByCourseId}; the course IDs are sent
+	 * to the database in chunks of at most {@link JdbcSupport#MAX_IN_LIST}
+	 * values.
+	 *
+	 * @param crsIds the IDs of the courses
+	 * @param filter which kind of groups to load
+	 * @return the groups per course, in the order of the given IDs; courses
+	 * without groups have an empty list
+	 */
+	public Map<Id, List<AdminGroup>> loadByCourseIds(Collection<Id> crsIds, Selector filter) {
+		Map<Id, List<AdminGroup>> result = new LinkedHashMap<>(crsIds.size() * 2);
+		for (Id crsId : crsIds) {
+			result.put(crsId, new ArrayList<AdminGroup>());
+		}
+		for (List<Id> chunk : Iterables.partition(result.keySet(), JdbcSupport.MAX_IN_LIST)) {
+			LoadGroupWithGroupCodeQuery query = new LoadGroupWithGroupCodeQuery(getDAOSupport().getMap(), "ag", "gc");
+			Criteria criteria = query.getCriteria();
+			CriterionBuilder agBuilder = criteria.createBuilder("ag");
+			criteria.add(agBuilder.in("courseId", chunk));
+			addFilter(criteria, agBuilder, filter);
+			List<AdminGroup> groups = JdbcSupport.loadList("AdminGroupDAO.loadByCourseIds", getDAOSupport(), query);
+			Set<Id> seen = new HashSet<>();
+			for (AdminGroup grp : groups) {
+				// a group with more than one group code is returned more than once
+				if (seen.add(grp.getId())) {
+					result.get(grp.getCourseId()).add(grp);
+				}
+			}
+		}
+		return result;
+	}
+
+
+	/**
+	 * Streaming variant of {@link #loadByCourseId}: the groups are handed to
+	 * the visitor one at a time while the rows are read, nothing is kept in
+	 * memory. The rows are sorted by pk1, so the rows of a group with more
+	 * than one group code are consecutive and the group is visited once.
+	 *
+	 * @param crsId     the ID of the course
+	 * @param filter    which kind of groups to visit
+	 * @param fetchSize the JDBC fetch size (number of rows the driver fetches
+	 *                  per round trip), or 0 for the driver's default
+	 * @param visitor   receives each group
+	 */
+	public void visitByCourseId(Id crsId, Selector filter, int fetchSize, GroupVisitor visitor) {
+		LoadGroupWithGroupCodeQuery query = createCourseQuery(crsId, filter);
+		query.addOrderBy("ag", "id", true);
+		query.setFetchSize(fetchSize);
+		query.setVisitor(visitor);
+		JdbcSupport.loadList("AdminGroupDAO.visitByCourseId", getDAOSupport(), query);
+	}
+
+
+	/**
+	 * Loads a page of the groups of a course using keyset pagination: the
+	 * page starts right after the sort key in the token, so the database does
+	 * not have to skip the rows of the previous pages.
+	 * <p>
+	 * The join returns a row per group code, so a row limit does not limit
+	 * the number of groups. The rows are read ahead, continuing after the
+	 * last group read, until one group more than fits on the page has been
+	 * found (which tells there is a next page) or the groups run out.</p>
+	 *
+	 * @param crsId    the ID of the course
+	 * @param filter   which kind of groups to load
+	 * @param order    the order of the groups
+	 * @param after    the sort key of the last group on the previous page, or
+	 *                 NULL for the first page
+	 * @param pageSize the maximum number of groups on the page
+	 * @return the page
+	 */
+	public GroupPage loadPageByCourseId(Id crsId, Selector filter, GroupPage.Order order,
+	                                    GroupPage.Key after, int pageSize) {
+		List<AdminGroup> groups = new ArrayList<>(pageSize);
+		boolean hasNext = false;
+		GroupPage.Key from = after;
+		while (!hasNext) {
+			int wanted = pageSize + 1 - groups.size();
+			List<AdminGroup> rows = loadPageRows(crsId, filter, order, from, wanted);
+			for (AdminGroup grp : rows) {
+				// a group with more than one group code is returned on consecutive rows
+				if (groups.isEmpty() || !grp.getId().equals(groups.get(groups.size() - 1).getId())) {
+					if (groups.size() == pageSize) {
+						hasNext = true;
+						break;
+					}
+					groups.add(grp);
+				}
+			}
+			if (rows.size() < wanted || groups.isEmpty()) {
+				break;
+			}
+			from = new GroupPage.Key(order, groups.get(groups.size() - 1));
+		}
+		String next = hasNext ? GroupPage.createToken(order, groups.get(groups.size() - 1)) : null;
+		return new GroupPage(groups, next);
+	}
+
+
+	private List<AdminGroup> loadPageRows(Id crsId, Selector filter, GroupPage.Order order,
+	                                      GroupPage.Key after, int maxRows) {
+		LoadGroupWithGroupCodeQuery query = createCourseQuery(crsId, filter);
+		Criteria criteria = query.getCriteria();
+		CriterionBuilder agBuilder = criteria.createBuilder("ag");
+		if (after != null) {
+			Id afterId;
+			try {
+				afterId = Id.generateId(AdminGroup.DATA_TYPE, after.pk1);
+			} catch (PersistenceException e) {
+				throw new PersistenceRuntimeException("loadPageByCourseId(" + crsId + ") -> generateId("
+						+ after.pk1 + "): " + e.getMessage(), e);
+			}
+			if (order == GroupPage.Order.TITLE) {
+				criteria.add(agBuilder.or(agBuilder.greaterThan("title", after.title),
+						agBuilder.and(agBuilder.equal("title", after.title), agBuilder.greaterThan("id", afterId))));
+			} else {
+				criteria.add(agBuilder.greaterThan("id", afterId));
+			}
+		}
+		if (order == GroupPage.Order.TITLE) {
+			query.addOrderBy("ag", "title", true);
+		}
+		query.addOrderBy("ag", "id", true);
+		query.setMaxRows(maxRows);
+		return JdbcSupport.loadList("AdminGroupDAO.loadPageByCourseId", getDAOSupport(), query);
+	}
+
+
+	private LoadGroupWithGroupCodeQuery createCourseQuery(Id crsId, Selector filter) {
+		LoadGroupWithGroupCodeQuery query = new LoadGroupWithGroupCodeQuery(getDAOSupport().getMap(), "ag", "gc");
 		Criteria criteria = query.getCriteria();
 		CriterionBuilder agBuilder = criteria.createBuilder("ag");
 		criteria.add(agBuilder.equal("courseId", crsId));
+		addFilter(criteria, agBuilder, filter);
+		return query;
+	}
+
+
+	private static void addFilter(Criteria criteria, CriterionBuilder agBuilder, Selector filter) {
 		if (filter == Selector.GROUPS) {
 			criteria.add(agBuilder.equal("isGroupSet", false));
 		} else if (filter == Selector.GROUP_SETS) {
 			criteria.add(agBuilder.equal("isGroupSet", true));
 		}
-		return getDAOSupport().loadList(query);
 	}
 
 
-	private static class LoadGroupWithGroupCodeQuery extends SimpleJoinQuery {
+	static class LoadGroupWithGroupCodeQuery extends SimpleJoinQuery {
 		private final DbObjectMap groupMap;
 		private final String groupAlias, codeAlias;
+		private int fetchSize = 0;
+		private int maxRows = 0;
+		private GroupVisitor visitor = null;
+		private Id lastVisited = null;
 
 		LoadGroupWithGroupCodeQuery(DbObjectMap groupMap, String groupAlias, String codeAlias) {
 			super(groupMap, groupAlias);
@@ -113,6 +580,29 @@ class AdminGroupDAO extends SimpleDAO<AdminGroup> {
 			addJoin(JoinType.LeftOuter, GroupCode.MAP, codeAlias, "GroupId", "id", true);
 		}
 
+		void setFetchSize(int value) { fetchSize = value; }
+
+		void setMaxRows(int value) { maxRows = value; }
+
+		/**
+		 * @param value when set the groups are passed to the visitor instead
+		 *              of being collected in the results of the query; the
+		 *              query should be sorted by group so the repeated rows
+		 *              of a group can be skipped
+		 */
+		void setVisitor(GroupVisitor value) { visitor = value; }
+
+		@Override protected Statement prepareStatement(Connection con) throws SQLException {
+			Statement stmt = super.prepareStatement(con);
+			if (fetchSize > 0) {
+				stmt.setFetchSize(fetchSize);
+			}
+			if (maxRows > 0) {
+				stmt.setMaxRows(maxRows);
+			}
+			return stmt;
+		}
+
 		@Override protected void processRow(ResultSet rst) throws SQLException, PersistenceException {
 			if (_um == null) {
 				this._um = new ChainedDbUnmarshaller(groupMap.getUnmarshaller(groupAlias), GroupCode.MAP.getUnmarshaller(codeAlias));
@@ -127,7 +617,15 @@ class AdminGroupDAO extends SimpleDAO<AdminGroup> {
 				gc.setGroupId(grp.getId());
 			}
 			grp.setGroupCode(gc);
-			addResult(grp);
+			if (visitor != null) {
+				// a group with more than one group code is returned on consecutive rows
+				if (!grp.getId().equals(lastVisited)) {
+					lastVisited = grp.getId();
+					visitor.visit(grp);
+				}
+			} else {
+				addResult(grp);
+			}
 		}
 	}
 }
@@ -5,13 +5,27 @@ import blackboard.db.Transaction;
 import blackboard.persist.Id;
 import blackboard.persist.PersistenceException;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 
 /**
  * @author <a href="mailto:peter [at] fokkinga.nl">Peter Fokkinga</a>
  */
 public interface AdminGroupManager {
+	/**
+	 * Number of groups written in a single transaction by
+	 * {@link #persistAll(Collection)}.
+	 */
+	int DEFAULT_CHUNK_SIZE = 500;
+
+	/**
+	 * Number of rows fetched per round trip by
+	 * {@link #visitGroupsByCourseId(Id, GroupVisitor)}.
+	 */
+	int DEFAULT_FETCH_SIZE = 500;
+
 
 	/**
 	 * Get a group or group set with the given batch_uid. Depending on the
@@ -37,6 +51,19 @@ public interface AdminGroupManager {
 	 */
 	List<AdminGroup> loadByBatchUid(String uid);
 
+	/**
+	 * Get the groups (including group sets) for many batch_uid values at once.
+	 * The uniqueness rules of the group manager implementation are applied to
+	 * each batch_uid as with {@link #loadSingleByBatchUid(String)}.
+	 *
+	 * @param uids the batch_uid values to search for
+	 * @return the group or group set per batch_uid; batch_uid values for which
+	 * no group exists are not in the map; the result is never NULL
+	 * @throws IllegalStateException when a batch_uid violates the uniqueness
+	 *                               rules of the group manager implementation
+	 */
+	Map<String, AdminGroup> loadByBatchUids(Collection<String> uids);
+
 	/**
 	 * Get the group identified by the given id.
 	 *
@@ -46,6 +73,15 @@ public interface AdminGroupManager {
 	 */
 	AdminGroup loadById(Id grpId);
 
+	/**
+	 * Get the groups identified by the given ids.
+	 *
+	 * @param grpIds the IDs of the groups
+	 * @return the groups and/or group sets in the order of the given IDs; IDs
+	 * for which no group exists are skipped; the result is never NULL
+	 */
+	List<AdminGroup> loadByIds(Collection<Id> grpIds);
+
 	/**
 	 * Get all groups belonging to the course.
 	 *
@@ -55,6 +91,43 @@ public interface AdminGroupManager {
 	 */
 	List<AdminGroup> loadGroupsByCourseId(Id crsId);
 
+	/**
+	 * Get the groups of many courses at once; the courses are queried in
+	 * chunks instead of one by one.
+	 *
+	 * @param crsIds the IDs of the courses to retrieve the groups for
+	 * @return the groups (<em>not group sets!</em>) per course in the order
+	 * of the given IDs; courses without groups have an empty list
+	 */
+	Map<Id, List<AdminGroup>> loadGroupsByCourseIds(Collection<Id> crsIds);
+
+	/**
+	 * Streaming variant of {@link #loadGroupsByCourseId(Id)} with a fetch
+	 * size of {@link #DEFAULT_FETCH_SIZE}.
+	 *
+	 * @param crsId   the ID of the course to retrieve the groups for
+	 * @param visitor receives the groups (<em>not group sets!</em>) of the
+	 *                course one at a time
+	 */
+	@Transaction
+	void visitGroupsByCourseId(Id crsId, GroupVisitor visitor);
+
+	/**
+	 * Streaming variant of {@link #loadGroupsByCourseId(Id)}: each group is
+	 * handed to the visitor as soon as its row has been read, so memory use
+	 * does not depend on the number of groups in the course. This method
+	 * runs in a transaction because some JDBC drivers (PostgreSQL) only use
+	 * a cursor when auto-commit is off.
+	 *
+	 * @param crsId     the ID of the course to retrieve the groups for
+	 * @param fetchSize the number of rows the JDBC driver fetches per round
+	 *                  trip; 0 for the driver's default
+	 * @param visitor   receives the groups (<em>not group sets!</em>) of the
+	 *                  course one at a time
+	 */
+	@Transaction
+	void visitGroupsByCourseId(Id crsId, int fetchSize, GroupVisitor visitor);
+
 	/**
 	 * Get all group sets belonging to the course.
 	 *
@@ -64,6 +137,68 @@ public interface AdminGroupManager {
 	 */
 	List<AdminGroup> loadGroupSetsByCourseId(Id crsId);
 
+	/**
+	 * Get all groups and group sets belonging to the course with one query.
+	 *
+	 * @param crsId the ID of the course to retrieve the groups for
+	 * @return the groups and group sets that are in the course;
+	 * the result may be empty but is never NULL
+	 */
+	List<AdminGroup> loadAllByCourseId(Id crsId);
+
+	/**
+	 * Get the group sets of many courses at once; the courses are queried in
+	 * chunks instead of one by one.
+	 *
+	 * @param crsIds the IDs of the courses to retrieve the group sets for
+	 * @return the group sets per course in the order of the given IDs;
+	 * courses without group sets have an empty list
+	 */
+	Map<Id, List<AdminGroup>> loadGroupSetsByCourseIds(Collection<Id> crsIds);
+
+	/**
+	 * Get an immutable view of each group and group set of the course. Views
+	 * can be shared between threads without locking and take less memory
+	 * than groups, but cannot be persisted.
+	 *
+	 * @param crsId the ID of the course to retrieve the groups for
+	 * @return the views of the groups <em>and</em> group sets of the course;
+	 * the result may be empty but is never NULL
+	 */
+	List<GroupView> loadViewsByCourseId(Id crsId);
+
+	/**
+	 * Get one page of the groups of a course. Pass the token of the returned
+	 * page to get the next one; the groups remain in order even when groups
+	 * are added or removed between the calls.
+	 *
+	 * @param crsId     the ID of the course to retrieve the groups for
+	 * @param order     the order of the groups over the pages
+	 * @param pageSize  the maximum number of groups per page; should be positive
+	 * @param pageToken {@link GroupPage#getNextPageToken()} of the previous
+	 *                  page, or NULL for the first page
+	 * @return the page with groups (<em>not group sets!</em>); never NULL
+	 * @throws IllegalArgumentException when {@code pageSize} is not positive
+	 *                                  or the token is not valid for the order
+	 */
+	GroupPage loadGroupsByCourseId(Id crsId, GroupPage.Order order, int pageSize, String pageToken);
+
+	/**
+	 * Get one page of the group sets of a course.
+	 *
+	 * @param crsId     the ID of the course to retrieve the group sets for
+	 * @param order     the order of the group sets over the pages
+	 * @param pageSize  the maximum number of group sets per page; should be
+	 *                  positive
+	 * @param pageToken {@link GroupPage#getNextPageToken()} of the previous
+	 *                  page, or NULL for the first page
+	 * @return the page with group sets; never NULL
+	 * @throws IllegalArgumentException when {@code pageSize} is not positive
+	 *                                  or the token is not valid for the order
+	 * @see #loadGroupsByCourseId(Id, GroupPage.Order, int, String)
+	 */
+	GroupPage loadGroupSetsByCourseId(Id crsId, GroupPage.Order order, int pageSize, String pageToken);
+
 	/**
 	 * Delete the given group / group set. When deleting a group its group codes
 	 * will be deleted as well. When deleting a group set its child groups
@@ -71,8 +206,22 @@ public interface AdminGroupManager {
 	 *
 	 * @param grpId the ID of the group or group set to delete
 	 */
+	@Transaction
 	void deleteGroupById(Id grpId);
 
+	/**
+	 * Delete many groups and/or group sets at once, in a single transaction
+	 * and without loading the groups first. The group codes are removed with
+	 * a fixed number of set-based statements; the groups themselves are
+	 * deleted one by one by Blackboard, so that their enrolments, tools and
+	 * content are removed as well.
+	 *
+	 * @param grpIds the IDs of the groups and group sets to delete; IDs for
+	 *               which no group exists are ignored
+	 */
+	@Transaction
+	void deleteGroupsByIds(Collection<Id> grpIds);
+
 	/**
 	 * Make a group part of a group set. With the Blackboard API it is only
 	 * possible to add a group to a group set when creating the group. With
@@ -85,7 +234,50 @@ public interface AdminGroupManager {
 	 */
 	boolean addGroupToGroupSet(Id grpId, Id grpSetId);
 
+	/**
+	 * Make many groups part of a group set at once; the updates are sent in
+	 * batches instead of one round trip per group.
+	 *
+	 * @param grpIds   the IDs of the groups that should be part of the group set
+	 * @param grpSetId the ID of the group set that will be parent for the groups
+	 * @return the IDs of the groups that have been moved; groups that don't
+	 * exist, are group sets, are part of another course than the group set
+	 * or were already part of the group set are not included; nothing is
+	 * moved when {@code grpSetId} is not a group set
+	 * @see #addGroupToGroupSet(Id, Id)
+	 */
+	@Transaction
+	List<Id> addGroupsToGroupSet(Collection<Id> grpIds, Id grpSetId);
+
 
 	@Transaction
 	void persist(AdminGroup grp) throws PersistenceException, ValidationException;
+
+	/**
+	 * Persist groups in chunks of {@link #DEFAULT_CHUNK_SIZE}.
+	 *
+	 * @param grps the groups and/or group sets to insert or update
+	 * @return which groups have been persisted and which have not
+	 * @see #persistAll(Collection, int)
+	 */
+	BulkPersistResult persistAll(Collection<AdminGroup> grps);
+
+	/**
+	 * Persist a large number of groups. Invalid groups are reported and
+	 * skipped, the others are written and committed in chunks; each chunk is
+	 * a separate transaction. When a chunk is rejected (for instance because
+	 * of a duplicate batch_uid) the groups in that chunk will be persisted
+	 * one by one, so the result can tell exactly which groups failed.
+	 * <p>
+	 * Within a chunk the changed group codes are updated with a single JDBC
+	 * batch and their uniqueness is checked with a single query. Groups and
+	 * new group codes are still inserted one at a time by Blackboard's
+	 * persisters, as only those know how to generate the IDs.
+	 *
+	 * @param grps      the groups and/or group sets to insert or update
+	 * @param chunkSize the number of groups per transaction; should be positive
+	 * @return which groups have been persisted and which have not
+	 * @throws IllegalArgumentException when {@code chunkSize} is not positive
+	 */
+	BulkPersistResult persistAll(Collection<AdminGroup> grps, int chunkSize);
 }
@@ -18,6 +18,9 @@ package nl.fokkinga.bb.admingroup;
 
 import blackboard.db.TransactionInterfaceFactory;
 
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+
 
 /**
  * Strict:
@@ -31,15 +34,92 @@ import blackboard.db.TransactionInterfaceFactory;
  * Unrestricted / Permissive
  *  multiple groups in the same course can have the same batch_uid
  *  a single group can have multiple batch_uid values
+ *
+ * The calls of the managers are recorded in the {@link OperationMetrics},
+ * which are published as an MBean named {@value OperationMetrics#OBJECT_NAME}
+ * plus an instance key per deployment. Call {@link #shutdown()} when the
+ * building block is stopped, so the MBean is removed.
 
  * @author <a href="mailto:peter [at] fokkinga.nl">Peter Fokkinga</a>
  */
 public class AdminGroupManagerFactory {
-	private static final AdminGroupManager STRICT_MANAGER = (AdminGroupManager) TransactionInterfaceFactory.getInstance(
-			AdminGroupManager.class, new StrictManagerImpl());
+	private static final AdminGroupManager STRICT_MANAGER = recorded("StrictManagerImpl", new StrictManagerImpl());
+	private static final AdminGroupManager INDEXED_STRICT_MANAGER = recorded("StrictManagerImpl(INDEX)",
+			new StrictManagerImpl(StrictManagerImpl.UniquenessCheck.INDEX));
+	private static final CachingManagerImpl CACHING_MANAGER = new CachingManagerImpl(STRICT_MANAGER,
+			CachingManagerImpl.DEFAULT_MAX_WEIGHT, TimeUnit.MINUTES.toSeconds(CachingManagerImpl.DEFAULT_TTL_MINUTES),
+			CachingManagerImpl.DEFAULT_MISS_TTL_SECONDS, TimeUnit.SECONDS);
+	// set once the unique index has been found
+	private static volatile boolean batchUidIndexFound = false;
+
+	static {
+		OperationMetrics.registerMBean();
+	}
+
+
+	/*
+	 * the transactions are started by the inner proxy, so the recorded time
+	 * includes the commit
+	 */
+	private static AdminGroupManager recorded(String name, AdminGroupManager mngr) {
+		Object transactional = TransactionInterfaceFactory.getInstance(AdminGroupManager.class, mngr);
+		return (AdminGroupManager) Proxy.newProxyInstance(AdminGroupManager.class.getClassLoader(),
+				new Class<?>[] { AdminGroupManager.class }, new OperationMetrics.Recorder(name, transactional));
+	}
+
+
+	/**
+	 * Releases what the factory registered outside of the building block:
+	 * the MBean with the {@link OperationMetrics} is unregistered and the
+	 * threads of the shared {@link GroupValidator} are stopped. Call this
+	 * when the building block is stopped or undeployed, like from
+	 * {@code ServletContextListener.contextDestroyed}; otherwise a
+	 * redeployed building block leaves the old MBean (and its class loader)
+	 * behind.
+	 */
+	public static void shutdown() {
+		OperationMetrics.unregisterMBean();
+		GroupValidator.shutdown();
+	}
 
 
 	public static AdminGroupManager getStrictManager() {
 		return STRICT_MANAGER;
 	}
+
+
+	/**
+	 * Get a strict manager that leaves the uniqueness check of the batch_uid
+	 * to the database. This manager needs the unique index
+	 * {@link GroupCodeDAO#BATCH_UID_INDEX} (see
+	 * {@code bb_groupcode_batch_uid_uk.sql}), without it duplicates would go
+	 * unnoticed. Until the index has been found this method checks for it.
+	 *
+	 * @return a strict manager using {@link StrictManagerImpl.UniquenessCheck#INDEX}
+	 * @throws IllegalStateException when the unique index does not exist
+	 */
+	public static AdminGroupManager getIndexedStrictManager() {
+		if (!batchUidIndexFound) {
+			if (!GroupCodeDAO.get().hasBatchUidIndex()) {
+				throw new IllegalStateException("getIndexedStrictManager: the unique index "
+						+ GroupCodeDAO.BATCH_UID_INDEX + " does not exist, see bb_groupcode_batch_uid_uk.sql");
+			}
+			batchUidIndexFound = true;
+		}
+		return INDEXED_STRICT_MANAGER;
+	}
+
+
+	/**
+	 * Get a manager with the rules of the strict manager that caches the
+	 * lookups by batch_uid. A batch_uid without a group is remembered for
+	 * {@link CachingManagerImpl#DEFAULT_MISS_TTL_SECONDS} seconds, unless a
+	 * group with that batch_uid is persisted through this manager.
+	 *
+	 * @return a caching manager backed by {@link #getStrictManager()}
+	 * @see CachingManagerImpl
+	 */
+	public static CachingManagerImpl getCachingManager() {
+		return CACHING_MANAGER;
+	}
 }
@@ -0,0 +1,305 @@
+/*
+ * Copyright 2015 Peter R. Fokkinga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.fokkinga.bb.admingroup;
+
+import blackboard.persist.Id;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+
+
+/**
+ * Runs the calls of a group manager on an executor, so independent lookups
+ * can overlap instead of blocking the calling thread one after the other.
+ * Every call is a separate task; when the underlying manager has been
+ * obtained from {@link AdminGroupManagerFactory} each task gets its own
+ * transaction where the manager's methods are annotated with
+ * {@code @Transaction}, exactly as when calling the manager directly.
+ * <p>
+ * Any {@link ExecutorService} can be used; on Java 21 that includes
+ * {@code Executors.newVirtualThreadPerTaskExecutor()}. Keep in mind that
+ * each running task holds a database connection, so the number of tasks
+ * that run at the same time should stay well below the size of the
+ * connection pool.</p>
+ *
+ * <pre>
+ * AsyncAdminGroupManager async = new AsyncAdminGroupManager(AdminGroupManagerFactory.getStrictManager(), 8, 1000);
+ * List&lt;ListenableFuture&lt;AdminGroup&gt;&gt; lookups = new ArrayList&lt;&gt;();
+ * for (String uid : uids) {
+ *     lookups.add(async.loadSingleByBatchUid(uid));
+ * }
+ * List&lt;AdminGroup&gt; groups = Futures.allAsList(lookups).get();
+ * </pre>
+ *
+ * @author <a href="mailto:peter [at] fokkinga.nl">Peter Fokkinga</a>
+ */
+public class AsyncAdminGroupManager {
+	private final AdminGroupManager delegate;
+	private final ListeningExecutorService executor;
+	private final boolean ownsExecutor;
+
+
+	/**
+	 * Creates a manager with its own bounded thread pool. When the queue is
+	 * full the call is not run at all: the returned future fails with a
+	 * {@link RejectedExecutionException}, so a caller that submits faster
+	 * than the pool can keep up with should back off and retry.
+	 *
+	 * @param delegate  the manager that does the actual work
+	 * @param threads   the maximum number of calls that run at the same time
+	 * @param queueSize the maximum number of calls waiting for a thread
+	 * @throws IllegalArgumentException when {@code threads} or
+	 *                                  {@code queueSize} is not positive
+	 */
+	public AsyncAdminGroupManager(AdminGroupManager delegate, int threads, int queueSize) {
+		this(delegate, newBoundedExecutor(threads, queueSize), true);
+	}
+
+
+	/**
+	 * Creates a manager that uses the given executor. The executor is not
+	 * shut down by {@link #shutdown()}.
+	 *
+	 * @param delegate the manager that does the actual work
+	 * @param executor runs the calls
+	 */
+	public AsyncAdminGroupManager(AdminGroupManager delegate, ExecutorService executor) {
+		this(delegate, executor, false);
+	}
+
+
+	private AsyncAdminGroupManager(AdminGroupManager delegate, ExecutorService executor, boolean ownsExecutor) {
+		if (delegate == null) {
+			throw new IllegalArgumentException("AsyncAdminGroupManager: parameter 'delegate' should not be NULL");
+		}
+		if (executor == null) {
+			throw new IllegalArgumentException("AsyncAdminGroupManager: parameter 'executor' should not be NULL");
+		}
+		this.delegate = delegate;
+		this.executor = MoreExecutors.listeningDecorator(executor);
+		this.ownsExecutor = ownsExecutor;
+	}
+
+
+	private static ExecutorService newBoundedExecutor(int threads, int queueSize) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("AsyncAdminGroupManager: parameter 'threads' should be positive");
+		}
+		if (queueSize < 1) {
+			throw new IllegalArgumentException("AsyncAdminGroupManager: parameter 'queueSize' should be positive");
+		}
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+					private final ThreadFactory defaults = Executors.defaultThreadFactory();
+
+					public Thread newThread(Runnable r) {
+						Thread t = defaults.newThread(r);
+						t.setName("admingroup-" + t.getName());
+						t.setDaemon(true);
+						return t;
+					}
+				}, new ThreadPoolExecutor.AbortPolicy());
+		pool.allowCoreThreadTimeOut(true);
+		return pool;
+	}
+
+
+	/**
+	 * Shuts down the thread pool when it has been created by this manager;
+	 * calls already submitted will still be run, the futures of calls made
+	 * afterwards fail with a {@link RejectedExecutionException}.
+	 */
+	public void shutdown() {
+		if (ownsExecutor) {
+			executor.shutdown();
+		}
+	}
+
+
+	/**
+	 * @return the manager that does the actual work
+	 */
+	public AdminGroupManager getDelegate() { return delegate; }
+
+
+	/*
+	 * a task the executor won't take is reported through the future, it is
+	 * never run in the caller's thread (and transaction)
+	 */
+	private <T> ListenableFuture<T> submit(Callable<T> task) {
+		try {
+			return executor.submit(task);
+		} catch (RejectedExecutionException e) {
+			return Futures.immediateFailedFuture(e);
+		}
+	}
+
+
+	/** @see AdminGroupManager#loadSingleByBatchUid(String) */
+	public ListenableFuture<AdminGroup> loadSingleByBatchUid(final String uid) {
+		return submit(new Callable<AdminGroup>() {
+			public AdminGroup call() {
+				return delegate.loadSingleByBatchUid(uid);
+			}
+		});
+	}
+
+
+	/** @see AdminGroupManager#loadByBatchUid(String) */
+	public ListenableFuture<List<AdminGroup>> loadByBatchUid(final String uid) {
+		return submit(new Callable<List<AdminGroup>>() {
+			public List<AdminGroup> call() {
+				return delegate.loadByBatchUid(uid);
+			}
+		});
+	}
+
+
+	/** @see AdminGroupManager#loadByBatchUids(Collection) */
+	public ListenableFuture<Map<String, AdminGroup>> loadByBatchUids(final Collection<String> uids) {
+		return submit(new Callable<Map<String, AdminGroup>>() {
+			public Map<String, AdminGroup> call() {
+				return delegate.loadByBatchUids(uids);
+			}
+		});
+	}
+
+
+	/** @see AdminGroupManager#loadById(Id) */
+	public ListenableFuture<AdminGroup> loadById(final Id grpId) {
+		return submit(new Callable<AdminGroup>() {
+			public AdminGroup call() {
+				return delegate.loadById(grpId);
+			}
+		});
+	}
+
+
+	/** @see AdminGroupManager#loadByIds(Collection) */
+	public ListenableFuture<List<AdminGroup>> loadByIds(final Collection<Id> grpIds) {
+		return submit(new Callable<List<AdminGroup>>() {
+			public List<AdminGroup> call() {
+				return delegate.loadByIds(grpIds);
+			}
+		});
+	}
+
+
+	/** @see AdminGroupManager#loadGroupsByCourseId(Id) */
+	public ListenableFuture<List<AdminGroup>> loadGroupsByCourseId(final Id crsId) {
+		return submit(new Callable<List<AdminGroup>>() {
+			public List<AdminGroup> call() {
+				return delegate.loadGroupsByCourseId(crsId);
+			}
+		});
+	}
+
+
+	/** @see AdminGroupManager#loadGroupSetsByCourseId(Id) */
+	public ListenableFuture<List<AdminGroup>> loadGroupSetsByCourseId(final Id crsId) {
+		return submit(new Callable<List<AdminGroup>>() {
+			public List<AdminGroup> call() {
+				return delegate.loadGroupSetsByCourseId(crsId);
+			}
+		});
+	}
+
+
+	/** @see AdminGroupManager#loadViewsByCourseId(Id) */
+	public ListenableFuture<List<GroupView>> loadViewsByCourseId(final Id crsId) {
+		return submit(new Callable<List<GroupView>>() {
+			public List<GroupView> call() {
+				return delegate.loadViewsByCourseId(crsId);
+			}
+		});
+	}
+
+
+	/** @see AdminGroupManager#deleteGroupById(Id) */
+	public ListenableFuture<Void> deleteGroupById(final Id grpId) {
+		return submit(new Callable<Void>() {
+			public Void call() {
+				delegate.deleteGroupById(grpId);
+				return null;
+			}
+		});
+	}
+
+
+	/** @see AdminGroupManager#deleteGroupsByIds(Collection) */
+	public ListenableFuture<Void> deleteGroupsByIds(final Collection<Id> grpIds) {
+		return submit(new Callable<Void>() {
+			public Void call() {
+				delegate.deleteGroupsByIds(grpIds);
+				return null;
+			}
+		});
+	}
+
+
+	/** @see AdminGroupManager#addGroupToGroupSet(Id, Id) */
+	public ListenableFuture<Boolean> addGroupToGroupSet(final Id grpId, final Id grpSetId) {
+		return submit(new Callable<Boolean>() {
+			public Boolean call() {
+				return delegate.addGroupToGroupSet(grpId, grpSetId);
+			}
+		});
+	}
+
+
+	/** @see AdminGroupManager#addGroupsToGroupSet(Collection, Id) */
+	public ListenableFuture<List<Id>> addGroupsToGroupSet(final Collection<Id> grpIds, final Id grpSetId) {
+		return submit(new Callable<List<Id>>() {
+			public List<Id> call() {
+				return delegate.addGroupsToGroupSet(grpIds, grpSetId);
+			}
+		});
+	}
+
+
+	/**
+	 * Persists the group in a task of its own; a failure (like a
+	 * {@link DuplicateBatchUidException}) rolls back that task only and is
+	 * reported through the future.
+	 *
+	 * @see AdminGroupManager#persist(AdminGroup)
+	 */
+	public ListenableFuture<AdminGroup> persist(final AdminGroup grp) {
+		return submit(new Callable<AdminGroup>() {
+			public AdminGroup call() throws Exception {
+				delegate.persist(grp);
+				return grp;
+			}
+		});
+	}
+
+
+	/** @see AdminGroupManager#persistAll(Collection, int) */
+	public ListenableFuture<BulkPersistResult> persistAll(final Collection<AdminGroup> grps, final int chunkSize) {
+		return submit(new Callable<BulkPersistResult>() {
+			public BulkPersistResult call() {
+				return delegate.persistAll(grps, chunkSize);
+			}
+		});
+	}
+}
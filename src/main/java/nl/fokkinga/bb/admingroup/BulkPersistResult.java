@@ -0,0 +1,79 @@
+/*
+ * Copyright 2015 Peter R. Fokkinga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.fokkinga.bb.admingroup;
+
+import java.util.*;
+
+
+/**
+ * The outcome of {@link AdminGroupManager#persistAll}: which groups have been
+ * persisted and why the others were not.
+ *
+ * @author <a href="mailto:peter [at] fokkinga.nl">Peter Fokkinga</a>
+ */
+public class BulkPersistResult {
+	private final List<AdminGroup> persisted = new ArrayList<>();
+	// new groups are all equal to each other, so compare by reference
+	private final Map<AdminGroup, Exception> failures = new IdentityHashMap<>();
+
+
+	void addPersisted(Collection<AdminGroup> grps) {
+		persisted.addAll(grps);
+	}
+
+	void addPersisted(AdminGroup grp) {
+		persisted.add(grp);
+	}
+
+	void addFailure(AdminGroup grp, Exception e) {
+		failures.put(grp, e);
+	}
+
+
+	/**
+	 * @return the groups that have been persisted successfully
+	 */
+	public List<AdminGroup> getPersisted() {
+		return Collections.unmodifiableList(persisted);
+	}
+
+
+	/**
+	 * Get the groups that have not been persisted together with the reason
+	 * why. The reason usually is a {@link blackboard.data.ValidationException}
+	 * or a {@link DuplicateBatchUidException}.
+	 *
+	 * @return the groups that could not be persisted; the map is keyed by
+	 * object identity
+	 */
+	public Map<AdminGroup, Exception> getFailures() {
+		return Collections.unmodifiableMap(failures);
+	}
+
+
+	/**
+	 * @return true when all groups have been persisted
+	 */
+	public boolean isSuccess() {
+		return failures.isEmpty();
+	}
+
+
+	@Override public String toString() {
+		return getClass().getSimpleName() + "{persisted=" + persisted.size() + " failed=" + failures.size() + "}";
+	}
+}
@@ -0,0 +1,524 @@
+/*
+ * Copyright 2015 Peter R. Fokkinga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.fokkinga.bb.admingroup;
+
+import blackboard.data.ValidationException;
+import blackboard.persist.Id;
+import blackboard.persist.PersistenceException;
+import blackboard.persist.PersistenceRuntimeException;
+import com.google.common.cache.*;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.SetMultimap;
+import nl.fokkinga.bb.Util;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * A group manager that keeps a read-through cache of batch_uid &rarr; group
+ * in front of another manager (usually the strict manager). Only the lookups
+ * by batch_uid are cached, all other calls are passed on as is. Changes made
+ * through this manager remove the affected groups from the cache; changes
+ * made by other means (like the Blackboard GUI or another server in the
+ * cluster) will only be seen when the cached entry expires.
+ * <p>
+ * The cache holds immutable {@link GroupView}s, which can be shared between
+ * callers. None of the lookups by batch_uid touch the database when the
+ * batch_uid is cached: {@link #loadViewByBatchUid} and
+ * {@link #loadViewsByBatchUids} return the cached view, the lookups that
+ * return an {@link AdminGroup} give each caller its own group restored from
+ * the view. Such a group only has the properties of the view (its
+ * description, for one, is NULL). It can be changed and persisted like any
+ * other group: the manager then loads the group first, so only the changed
+ * properties are written. Load the group with {@link #loadById} instead
+ * when other properties are needed or will be changed; persisting a
+ * restored group after {@link AdminGroup#markModified()} fails.
+ * Duplicate batch_uid values are reported when a lookup reaches the
+ * underlying manager; a cached batch_uid is unique by then.</p>
+ * <p>
+ * Optionally batch_uid values without a group are remembered as well, for a
+ * (short) time of their own; like the cached groups, a group created by
+ * other means is not found by this manager until the miss expires.</p>
+ * <p>
+ * Concurrent lookups of the same batch_uid that is not cached share a single
+ * call of the underlying manager, and so do concurrent calls of
+ * {@link #loadViewsByCourseId} for the same course; each caller gets its
+ * own group or list. The lookups by course that return {@link AdminGroup}s
+ * are passed on as is: those groups have all their properties and are
+ * loaded in the transaction of the caller, so they cannot be shared.</p>
+ * <p>
+ * A lookup only caches what it read when no change has been made through
+ * this manager while it ran, so a lookup that started before a change
+ * cannot put the old state back in the cache. The cache entries are removed
+ * when the call making the change returns; when that call is part of a
+ * larger transaction of the caller, a lookup by another thread before the
+ * commit may still cache the old state.</p>
+ *
+ * @author <a href="mailto:peter [at] fokkinga.nl">Peter Fokkinga</a>
+ */
+public class CachingManagerImpl implements AdminGroupManager {
+	/**
+	 * Default upper bound for the (estimated) memory used by the cache, in bytes.
+	 */
+	public static final long DEFAULT_MAX_WEIGHT = 16L * 1024 * 1024;
+
+	/**
+	 * Default time in minutes a group stays in the cache after being loaded.
+	 */
+	public static final long DEFAULT_TTL_MINUTES = 10;
+
+	/**
+	 * Default time in seconds a batch_uid without a group is remembered by
+	 * the manager of {@link AdminGroupManagerFactory#getCachingManager()}.
+	 */
+	public static final long DEFAULT_MISS_TTL_SECONDS = 30;
+
+	private static final int MAX_MISSES = 10000;
+
+	private final AdminGroupManager delegate;
+	private final Cache<String, GroupView> cache;
+	private final Cache<String, Boolean> misses;
+	private final SingleFlight<String, GroupView> viewLookups = new SingleFlight<>();
+	private final SingleFlight<Id, List<GroupView>> courseLookups = new SingleFlight<>();
+	// reverse index so a changed group can be found by its pk1; a group can have several batch_uid values
+	private final SetMultimap<Long, String> uidsByPk1 = HashMultimap.create();
+	// incremented on each invalidation (while holding the lock of uidsByPk1)
+	private final AtomicLong invalidations = new AtomicLong();
+
+
+	public CachingManagerImpl(AdminGroupManager delegate) {
+		this(delegate, DEFAULT_MAX_WEIGHT, DEFAULT_TTL_MINUTES, TimeUnit.MINUTES);
+	}
+
+
+	/**
+	 * @param delegate  the manager that does the actual work
+	 * @param maxWeight upper bound for the estimated memory used by the cache
+	 *                  in bytes; the least recently used groups are evicted
+	 *                  first
+	 * @param ttl       how long a group stays in the cache after being loaded
+	 * @param unit      the unit of {@code ttl}
+	 */
+	public CachingManagerImpl(AdminGroupManager delegate, long maxWeight, long ttl, TimeUnit unit) {
+		this(delegate, maxWeight, ttl, 0, unit);
+	}
+
+
+	/**
+	 * @param delegate  the manager that does the actual work
+	 * @param maxWeight upper bound for the estimated memory used by the cache
+	 *                  in bytes; the least recently used groups are evicted
+	 *                  first
+	 * @param ttl       how long a group stays in the cache after being loaded
+	 * @param missTtl   how long a batch_uid that does not belong to any group
+	 *                  is remembered; zero disables remembering misses
+	 * @param unit      the unit of {@code ttl} and {@code missTtl}
+	 */
+	public CachingManagerImpl(AdminGroupManager delegate, long maxWeight, long ttl, long missTtl, TimeUnit unit) {
+		this.delegate = delegate;
+		this.misses = CacheBuilder.newBuilder()
+				.maximumSize(missTtl > 0 ? MAX_MISSES : 0)
+				.expireAfterWrite(missTtl, unit)
+				.build();
+		this.cache = CacheBuilder.newBuilder()
+				.maximumWeight(maxWeight)
+				.weigher(new Weigher<String, GroupView>() {
+					public int weigh(String uid, GroupView view) {
+						return estimateSize(uid, view);
+					}
+				})
+				.expireAfterWrite(ttl, unit)
+				.recordStats()
+				.removalListener(new RemovalListener<String, GroupView>() {
+					public void onRemoval(RemovalNotification<String, GroupView> notification) {
+						unindex(notification.getKey(), notification.getValue());
+					}
+				})
+				.build();
+	}
+
+
+	/*
+	 * rough estimate of the memory footprint of a view and the cache entry;
+	 * strings take two bytes per character
+	 */
+	private static int estimateSize(String uid, GroupView view) {
+		String title = view.getTitle();
+		return 200 + 2 * (uid.length() + view.getBatchUid().length() + (title != null ? title.length() : 0));
+	}
+
+
+	/**
+	 * @return hit/miss/eviction statistics of the batch_uid cache
+	 */
+	public CacheStats getCacheStats() {
+		return cache.stats();
+	}
+
+
+	/**
+	 * Removes all groups from the cache.
+	 */
+	public void invalidateAll() {
+		synchronized (uidsByPk1) {
+			invalidations.incrementAndGet();
+			cache.invalidateAll();
+			misses.invalidateAll();
+		}
+	}
+
+
+	/*
+	 * caches the view of the group unless something has been invalidated
+	 * since the lookup started
+	 */
+	private GroupView cache(String uid, AdminGroup grp, long invalidationsBefore) {
+		GroupView view = grp.toView();
+		synchronized (uidsByPk1) {
+			if (invalidations.get() == invalidationsBefore) {
+				cache.put(uid, view);
+				uidsByPk1.put(view.getPk1(), uid);
+			}
+		}
+		return view;
+	}
+
+
+	private void cacheMiss(String uid, long invalidationsBefore) {
+		synchronized (uidsByPk1) {
+			if (invalidations.get() == invalidationsBefore) {
+				misses.put(uid, Boolean.TRUE);
+			}
+		}
+	}
+
+
+	private void cacheMisses(Collection<String> uids, Set<String> found, long invalidationsBefore) {
+		for (String uid : uids) {
+			if (!found.contains(uid)) {
+				cacheMiss(uid, invalidationsBefore);
+			}
+		}
+	}
+
+
+	/*
+	 * the notification of a removal may arrive after the batch_uid has been
+	 * cached again for the same group
+	 */
+	private void unindex(String uid, GroupView view) {
+		if (view != null) {
+			synchronized (uidsByPk1) {
+				GroupView current = cache.asMap().get(uid);
+				if (current == null || current.getPk1() != view.getPk1()) {
+					uidsByPk1.remove(view.getPk1(), uid);
+				}
+			}
+		}
+	}
+
+
+	private void invalidate(Id grpId) {
+		if (Id.isValidPkId(grpId)) {
+			synchronized (uidsByPk1) {
+				invalidations.incrementAndGet();
+				cache.invalidateAll(uidsByPk1.removeAll(Util.toNumber(grpId)));
+				cache.invalidate(GroupCode.generateBatchUid(grpId));
+			}
+		}
+	}
+
+
+	private void invalidate(AdminGroup grp) {
+		synchronized (uidsByPk1) {
+			invalidate(grp.getId());
+			invalidations.incrementAndGet();
+			cache.invalidate(grp.getBatchUid());
+			misses.invalidate(grp.getBatchUid());
+		}
+	}
+
+
+	private static Id toId(long grpPk1) {
+		try {
+			return Id.generateId(AdminGroup.DATA_TYPE, grpPk1);
+		} catch (PersistenceException e) {
+			throw new PersistenceRuntimeException("generateId(" + grpPk1 + "): " + e.getMessage(), e);
+		}
+	}
+
+
+	/**
+	 * Gets the view of the group with the given batch_uid; no query is run
+	 * when the batch_uid is cached.
+	 *
+	 * @param uid the batch_uid of the group
+	 * @return the view of the group, or NULL when no group has the batch_uid
+	 * @throws IllegalStateException when multiple groups have the batch_uid
+	 */
+	public GroupView loadViewByBatchUid(final String uid) {
+		GroupView view = cache.getIfPresent(uid);
+		if (view == null && misses.getIfPresent(uid) == null) {
+			// views are immutable, so concurrent lookups can share the outcome
+			view = viewLookups.execute(uid, new Callable<GroupView>() {
+				public GroupView call() {
+					long invalidationsBefore = invalidations.get();
+					AdminGroup grp = delegate.loadSingleByBatchUid(uid);
+					if (grp == null) {
+						cacheMiss(uid, invalidationsBefore);
+						return null;
+					}
+					return cache(uid, grp, invalidationsBefore);
+				}
+			});
+		}
+		return view;
+	}
+
+
+	/**
+	 * Multi-get variant of {@link #loadViewByBatchUid}; the batch_uid values
+	 * that are not cached are loaded with a single call of the underlying
+	 * manager.
+	 *
+	 * @param uids the batch_uid values to look up
+	 * @return the views per batch_uid; batch_uid values without a group are
+	 * not in the map
+	 * @throws IllegalStateException when multiple groups have one of the
+	 *                               batch_uid values
+	 */
+	public Map<String, GroupView> loadViewsByBatchUids(Collection<String> uids) {
+		Map<String, GroupView> result = new HashMap<>(uids.size() * 2);
+		List<String> missing = new ArrayList<>();
+		for (String uid : uids) {
+			GroupView view = cache.getIfPresent(uid);
+			if (view != null) {
+				result.put(uid, view);
+			} else if (misses.getIfPresent(uid) == null) {
+				missing.add(uid);
+			}
+		}
+		if (!missing.isEmpty()) {
+			long invalidationsBefore = invalidations.get();
+			for (Map.Entry<String, AdminGroup> entry : delegate.loadByBatchUids(missing).entrySet()) {
+				result.put(entry.getKey(), cache(entry.getKey(), entry.getValue(), invalidationsBefore));
+			}
+			cacheMisses(missing, result.keySet(), invalidationsBefore);
+		}
+		return result;
+	}
+
+
+	private static AdminGroup toGroup(GroupView view) {
+		try {
+			return AdminGroup.fromView(view);
+		} catch (PersistenceException e) {
+			throw new PersistenceRuntimeException(view + " restore caused: " + e.getMessage(), e);
+		}
+	}
+
+
+	@Override public AdminGroup loadSingleByBatchUid(String uid) {
+		GroupView view = loadViewByBatchUid(uid);
+		return view != null ? toGroup(view) : null;
+	}
+
+
+	@Override public List<AdminGroup> loadByBatchUid(String uid) {
+		AdminGroup grp = loadSingleByBatchUid(uid);
+		List<AdminGroup> result = new ArrayList<>(1);
+		if (grp != null) {
+			result.add(grp);
+		}
+		return result;
+	}
+
+
+	@Override public Map<String, AdminGroup> loadByBatchUids(Collection<String> uids) {
+		Map<String, AdminGroup> result = new HashMap<>(uids.size() * 2);
+		List<String> missing = new ArrayList<>();
+		for (String uid : uids) {
+			GroupView view = cache.getIfPresent(uid);
+			if (view != null) {
+				result.put(uid, toGroup(view));
+			} else if (misses.getIfPresent(uid) == null) {
+				missing.add(uid);
+			}
+		}
+		if (!missing.isEmpty()) {
+			long invalidationsBefore = invalidations.get();
+			Map<String, AdminGroup> loaded = delegate.loadByBatchUids(missing);
+			for (Map.Entry<String, AdminGroup> entry : loaded.entrySet()) {
+				cache(entry.getKey(), entry.getValue(), invalidationsBefore);
+			}
+			cacheMisses(missing, loaded.keySet(), invalidationsBefore);
+			result.putAll(loaded);
+		}
+		return result;
+	}
+
+
+	@Override public AdminGroup loadById(Id grpId) {
+		return delegate.loadById(grpId);
+	}
+
+
+	@Override public List<AdminGroup> loadByIds(Collection<Id> grpIds) {
+		return delegate.loadByIds(grpIds);
+	}
+
+
+	@Override public List<AdminGroup> loadGroupsByCourseId(Id crsId) {
+		return delegate.loadGroupsByCourseId(crsId);
+	}
+
+
+	@Override public Map<Id, List<AdminGroup>> loadGroupsByCourseIds(Collection<Id> crsIds) {
+		return delegate.loadGroupsByCourseIds(crsIds);
+	}
+
+
+	@Override public void visitGroupsByCourseId(Id crsId, GroupVisitor visitor) {
+		delegate.visitGroupsByCourseId(crsId, visitor);
+	}
+
+
+	@Override public void visitGroupsByCourseId(Id crsId, int fetchSize, GroupVisitor visitor) {
+		delegate.visitGroupsByCourseId(crsId, fetchSize, visitor);
+	}
+
+
+	@Override public List<AdminGroup> loadGroupSetsByCourseId(Id crsId) {
+		return delegate.loadGroupSetsByCourseId(crsId);
+	}
+
+
+	@Override public List<AdminGroup> loadAllByCourseId(Id crsId) {
+		return delegate.loadAllByCourseId(crsId);
+	}
+
+
+	@Override public Map<Id, List<AdminGroup>> loadGroupSetsByCourseIds(Collection<Id> crsIds) {
+		return delegate.loadGroupSetsByCourseIds(crsIds);
+	}
+
+
+	@Override public List<GroupView> loadViewsByCourseId(final Id crsId) {
+		if (crsId == null) {
+			// let the underlying manager report it
+			return delegate.loadViewsByCourseId(crsId);
+		}
+		return new ArrayList<>(courseLookups.execute(crsId, new Callable<List<GroupView>>() {
+			public List<GroupView> call() {
+				return delegate.loadViewsByCourseId(crsId);
+			}
+		}));
+	}
+
+
+	@Override public GroupPage loadGroupsByCourseId(Id crsId, GroupPage.Order order, int pageSize, String pageToken) {
+		return delegate.loadGroupsByCourseId(crsId, order, pageSize, pageToken);
+	}
+
+
+	@Override public GroupPage loadGroupSetsByCourseId(Id crsId, GroupPage.Order order, int pageSize, String pageToken) {
+		return delegate.loadGroupSetsByCourseId(crsId, order, pageSize, pageToken);
+	}
+
+
+	@Override public void deleteGroupById(Id grpId) {
+		try {
+			delegate.deleteGroupById(grpId);
+		} finally {
+			invalidateDeleted(Collections.singleton(grpId));
+		}
+	}
+
+
+	@Override public void deleteGroupsByIds(Collection<Id> grpIds) {
+		try {
+			delegate.deleteGroupsByIds(grpIds);
+		} finally {
+			invalidateDeleted(grpIds);
+		}
+	}
+
+
+	private void invalidateDeleted(Collection<Id> grpIds) {
+		Set<Long> deleted = new HashSet<>(grpIds.size() * 2);
+		for (Id grpId : grpIds) {
+			invalidate(grpId);
+			if (Id.isValidPkId(grpId)) {
+				deleted.add(Util.toNumber(grpId));
+			}
+		}
+		// deleting a group set also deletes its groups
+		for (GroupView view : cache.asMap().values()) {
+			if (deleted.contains(view.getSetPk1())) {
+				invalidate(toId(view.getPk1()));
+			}
+		}
+	}
+
+
+	@Override public boolean addGroupToGroupSet(Id grpId, Id grpSetId) {
+		try {
+			return delegate.addGroupToGroupSet(grpId, grpSetId);
+		} finally {
+			invalidate(grpId);
+		}
+	}
+
+
+	@Override public List<Id> addGroupsToGroupSet(Collection<Id> grpIds, Id grpSetId) {
+		try {
+			return delegate.addGroupsToGroupSet(grpIds, grpSetId);
+		} finally {
+			for (Id grpId : grpIds) {
+				invalidate(grpId);
+			}
+		}
+	}
+
+
+	@Override public void persist(AdminGroup grp) throws PersistenceException, ValidationException {
+		try {
+			delegate.persist(grp);
+		} finally {
+			invalidate(grp);
+		}
+	}
+
+
+	@Override public BulkPersistResult persistAll(Collection<AdminGroup> grps) {
+		return persistAll(grps, DEFAULT_CHUNK_SIZE);
+	}
+
+
+	@Override public BulkPersistResult persistAll(Collection<AdminGroup> grps, int chunkSize) {
+		try {
+			return delegate.persistAll(grps, chunkSize);
+		} finally {
+			for (AdminGroup grp : grps) {
+				invalidate(grp);
+			}
+		}
+	}
+}
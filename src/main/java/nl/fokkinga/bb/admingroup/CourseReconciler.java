@@ -0,0 +1,370 @@
+/*
+ * Copyright 2015 Peter R. Fokkinga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.fokkinga.bb.admingroup;
+
+import blackboard.persist.Id;
+import blackboard.persist.KeyNotFoundException;
+import blackboard.persist.PersistenceException;
+
+import java.util.*;
+
+
+/**
+ * Brings the groups of a course in line with a desired state while writing
+ * only what differs. The groups of a single source (like the SIS) are
+ * managed: a group of that source that is not in the desired state is
+ * deleted, groups of other sources (or created in the Blackboard GUI) are
+ * left alone.
+ * <p>
+ * Reconciling is done in two steps: {@link #plan} loads the current groups
+ * of the course through the manager with one query and computes the
+ * changes, {@link #apply} writes them. The plan can be inspected in
+ * between, for instance to log how many writes a run will cause or to
+ * refuse a run that would delete most groups of a course.</p>
+ *
+ * <pre>
+ * CourseReconciler reconciler = new CourseReconciler(AdminGroupManagerFactory.getStrictManager(), "sis");
+ * List&lt;CourseReconciler.Desired&gt; desired = Arrays.asList(
+ *         CourseReconciler.Desired.groupSet("2015-T1", "Tutorials"),
+ *         CourseReconciler.Desired.group("2015-T1-A", "Tutorial A", "2015-T1"));
+ * CourseReconciler.Plan plan = reconciler.plan(crsId, desired);
+ * log.info(plan);
+ * reconciler.apply(plan);
+ * </pre>
+ *
+ * @author <a href="mailto:peter [at] fokkinga.nl">Peter Fokkinga</a>
+ */
+public class CourseReconciler {
+	private final AdminGroupManager mngr;
+	private final String source;
+
+
+	/**
+	 * @param mngr   the manager that loads the current groups and writes the
+	 *               changes
+	 * @param source the source part of the sourced ids of the managed groups
+	 * @throws IllegalArgumentException when {@code source} is empty or
+	 *                                  contains the separator
+	 */
+	public CourseReconciler(AdminGroupManager mngr, String source) {
+		if (source == null || source.isEmpty() || source.contains(GroupCode.SOURCEDID_SEPARATOR)) {
+			throw new IllegalArgumentException("CourseReconciler: parameter 'source' should not be empty or contain "
+					+ GroupCode.SOURCEDID_SEPARATOR);
+		}
+		this.mngr = mngr;
+		this.source = source;
+	}
+
+
+	/**
+	 * Computes the changes needed to get from the current groups of the
+	 * course to the desired groups. Nothing is written.
+	 *
+	 * @param crsId   the ID of the course
+	 * @param desired the groups and group sets the course should have
+	 * @return the changes
+	 * @throws IllegalArgumentException when a desired group refers to a
+	 *                                  group set that is not desired, or when
+	 *                                  an id is desired twice
+	 */
+	public Plan plan(Id crsId, Collection<Desired> desired) {
+		Map<String, Desired> wanted = new LinkedHashMap<>(desired.size() * 2);
+		for (Desired d : desired) {
+			if (wanted.put(d.id, d) != null) {
+				throw new IllegalArgumentException("plan: id '" + d.id + "' is desired more than once");
+			}
+		}
+
+		Map<String, AdminGroup> current = new HashMap<>();
+		Plan plan = new Plan(crsId);
+		for (AdminGroup grp : mngr.loadAllByCourseId(crsId)) {
+			if (!source.equals(grp.getGroupCode().getSourcedIdSource())) {
+				continue;
+			}
+			String id = grp.getGroupCode().getSourcedIdId();
+			if (wanted.containsKey(id) && !current.containsKey(id)) {
+				current.put(id, grp);
+			} else {
+				plan.deletes.add(grp);
+			}
+		}
+
+		for (Map.Entry<String, AdminGroup> entry : current.entrySet()) {
+			if (entry.getValue().isGroupSet()) {
+				plan.setIds.put(entry.getKey(), entry.getValue().getId());
+			}
+		}
+
+		// IDs of the group sets of desired groups that stay where they are
+		Set<Id> held = new HashSet<>();
+		for (Desired d : wanted.values()) {
+			if (d.setId != null) {
+				Desired set = wanted.get(d.setId);
+				if (set == null || !set.groupSet) {
+					throw new IllegalArgumentException("plan: group set '" + d.setId + "' of '" + d.id + "' is not desired");
+				}
+			}
+			AdminGroup grp = current.get(d.id);
+			if (grp == null) {
+				grp = new AdminGroup();
+				grp.setCourseId(crsId);
+				grp.setSourcedId(source, d.id);
+				grp.setGroupSet(d.groupSet);
+				grp.setTitle(d.title);
+				(d.groupSet ? plan.setInserts : plan.inserts).add(grp);
+				if (d.setId != null) {
+					plan.insertSetIds.put(grp, d.setId);
+				}
+				continue;
+			}
+			if (!d.title.equals(grp.getTitle())) {
+				grp.setTitle(d.title);
+				plan.updates.add(grp);
+			}
+			AdminGroup set = (d.setId != null) ? current.get(d.setId) : null;
+			if (d.setId != null && (set == null || !set.getId().equals(grp.getSetId()))) {
+				plan.moves.put(grp, d.setId);
+			} else if (d.setId == null && grp.getSetId() != null) {
+				held.add(grp.getSetId());
+			}
+		}
+		plan.deletes.removeAll(keep(plan.deletes, held));
+		return plan;
+	}
+
+
+	/*
+	 * the group sets about to be deleted that still hold a group that has to
+	 * stay, which would otherwise be deleted with the set
+	 */
+	private static List<AdminGroup> keep(List<AdminGroup> deletes, Set<Id> held) {
+		List<AdminGroup> kept = new ArrayList<>();
+		for (AdminGroup grp : deletes) {
+			if (grp.isGroupSet() && held.contains(grp.getId())) {
+				kept.add(grp);
+			}
+		}
+		return kept;
+	}
+
+
+	/**
+	 * Writes the changes of the plan: first the new group sets, then the new
+	 * groups, the updated groups, the moves and finally the deletes (so
+	 * groups can move out of a group set before it is deleted). Groups that
+	 * could not be persisted or moved are reported in the result; the other
+	 * changes are not affected by them, except that a group set is not
+	 * deleted while a group that failed to move out of it is still in it.
+	 *
+	 * @param plan the plan created by {@link #plan}
+	 * @return the outcome of the inserts and updates, plus the moves that failed
+	 */
+	public BulkPersistResult apply(Plan plan) {
+		BulkPersistResult result = new BulkPersistResult();
+		merge(result, mngr.persistAll(plan.setInserts));
+
+		// new groups can only be put in a group set when the set has an ID
+		Map<String, Id> setIds = new HashMap<>(plan.setIds);
+		for (AdminGroup set : plan.setInserts) {
+			if (!set.isNew()) {
+				setIds.put(set.getGroupCode().getSourcedIdId(), set.getId());
+			}
+		}
+		List<AdminGroup> inserts = new ArrayList<>(plan.inserts.size());
+		for (AdminGroup grp : plan.inserts) {
+			String setId = plan.insertSetIds.get(grp);
+			if (setId != null) {
+				if (!setIds.containsKey(setId)) {
+					// the group set failed to insert, don't create the group outside of it
+					result.addFailure(grp, new KeyNotFoundException("group set '" + setId + "' of "
+							+ grp.getBatchUid() + " not found"));
+					continue;
+				}
+				grp.setSetId(setIds.get(setId));
+			}
+			inserts.add(grp);
+		}
+		merge(result, mngr.persistAll(inserts));
+		merge(result, mngr.persistAll(plan.updates));
+
+		Map<Id, List<AdminGroup>> moves = new HashMap<>();
+		// IDs of the group sets that groups failed to move out of
+		Set<Id> held = new HashSet<>();
+		for (Map.Entry<AdminGroup, String> move : plan.moves.entrySet()) {
+			AdminGroup grp = move.getKey();
+			Id setId = setIds.get(move.getValue());
+			if (setId == null) {
+				// the group set was not inserted, or exists as a group
+				result.addFailure(grp, new KeyNotFoundException("group set '" + move.getValue() + "' of "
+						+ grp.getBatchUid() + " not found"));
+				held.add(grp.getSetId());
+				continue;
+			}
+			List<AdminGroup> grps = moves.get(setId);
+			if (grps == null) {
+				grps = new ArrayList<>();
+				moves.put(setId, grps);
+			}
+			grps.add(grp);
+		}
+		for (Map.Entry<Id, List<AdminGroup>> move : moves.entrySet()) {
+			List<Id> grpIds = new ArrayList<>(move.getValue().size());
+			for (AdminGroup grp : move.getValue()) {
+				grpIds.add(grp.getId());
+			}
+			Set<Id> moved = new HashSet<>(mngr.addGroupsToGroupSet(grpIds, move.getKey()));
+			for (AdminGroup grp : move.getValue()) {
+				if (!moved.contains(grp.getId())) {
+					result.addFailure(grp, new PersistenceException(grp.getBatchUid() + " could not be moved to group set "
+							+ move.getKey()));
+					held.add(grp.getSetId());
+				}
+			}
+		}
+
+		List<AdminGroup> kept = keep(plan.deletes, held);
+		if (plan.deletes.size() > kept.size()) {
+			List<Id> grpIds = new ArrayList<>(plan.deletes.size());
+			for (AdminGroup grp : plan.deletes) {
+				if (!kept.contains(grp)) {
+					grpIds.add(grp.getId());
+				}
+			}
+			mngr.deleteGroupsByIds(grpIds);
+		}
+		return result;
+	}
+
+
+	private static void merge(BulkPersistResult into, BulkPersistResult from) {
+		into.addPersisted(from.getPersisted());
+		for (Map.Entry<AdminGroup, Exception> failure : from.getFailures().entrySet()) {
+			into.addFailure(failure.getKey(), failure.getValue());
+		}
+	}
+
+
+	/**
+	 * A group or group set the course should have.
+	 */
+	public static class Desired {
+		final String id, title, setId;
+		final boolean groupSet;
+
+		private Desired(String id, String title, String setId, boolean groupSet) {
+			if (id == null || id.isEmpty()) {
+				throw new IllegalArgumentException("Desired: parameter 'id' should not be empty");
+			}
+			if (title == null || title.isEmpty()) {
+				throw new IllegalArgumentException("Desired: parameter 'title' should not be empty");
+			}
+			this.id = id;
+			this.title = title;
+			this.setId = setId;
+			this.groupSet = groupSet;
+		}
+
+
+		/**
+		 * @param id    the id part of the sourced id of the group
+		 * @param title the title of the group
+		 * @param setId the id part of the sourced id of the group set the
+		 *              group should be in; NULL when it does not matter
+		 *              (the Blackboard API cannot take a group out of a set)
+		 * @return the desired group
+		 */
+		public static Desired group(String id, String title, String setId) {
+			return new Desired(id, title, setId, false);
+		}
+
+
+		/**
+		 * @param id    the id part of the sourced id of the group set
+		 * @param title the title of the group set
+		 * @return the desired group set
+		 */
+		public static Desired groupSet(String id, String title) {
+			return new Desired(id, title, null, true);
+		}
+	}
+
+
+	/**
+	 * The changes that bring a course in its desired state.
+	 */
+	public static class Plan {
+		final Id crsId;
+		// id part of the sourced id -> ID of the existing group sets
+		final Map<String, Id> setIds = new HashMap<>();
+		final List<AdminGroup> setInserts = new ArrayList<>();
+		final List<AdminGroup> inserts = new ArrayList<>();
+		// new groups are all equal to each other, so these are keyed by reference
+		final Map<AdminGroup, String> insertSetIds = new IdentityHashMap<>();
+		final List<AdminGroup> updates = new ArrayList<>();
+		final Map<AdminGroup, String> moves = new IdentityHashMap<>();
+		final List<AdminGroup> deletes = new ArrayList<>();
+
+		Plan(Id crsId) {
+			this.crsId = crsId;
+		}
+
+
+		/**
+		 * @return the group sets and groups that will be created
+		 */
+		public List<AdminGroup> getInserts() {
+			List<AdminGroup> all = new ArrayList<>(setInserts);
+			all.addAll(inserts);
+			return all;
+		}
+
+
+		/**
+		 * @return the existing groups whose title will be changed
+		 */
+		public List<AdminGroup> getUpdates() { return Collections.unmodifiableList(updates); }
+
+
+		/**
+		 * @return the existing groups that will be moved to another group set
+		 */
+		public Set<AdminGroup> getMoves() { return Collections.unmodifiableSet(moves.keySet()); }
+
+
+		/**
+		 * @return the groups and group sets that will be deleted; groups that
+		 * are still in a deleted group set (like groups of another source)
+		 * are deleted with it. A group set holding a desired group without a
+		 * desired group set is not deleted.
+		 */
+		public List<AdminGroup> getDeletes() { return Collections.unmodifiableList(deletes); }
+
+
+		/**
+		 * @return true when the course already is in its desired state
+		 */
+		public boolean isEmpty() {
+			return setInserts.isEmpty() && inserts.isEmpty() && updates.isEmpty() && moves.isEmpty() && deletes.isEmpty();
+		}
+
+
+		@Override public String toString() {
+			return getClass().getSimpleName() + "{course=" + crsId + " inserts=" + (setInserts.size() + inserts.size())
+					+ " updates=" + updates.size() + " moves=" + moves.size() + " deletes=" + deletes.size() + "}";
+		}
+	}
+}
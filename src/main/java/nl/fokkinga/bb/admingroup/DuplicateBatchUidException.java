@@ -0,0 +1,34 @@
+/*
+ * Copyright 2015 Peter R. Fokkinga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.fokkinga.bb.admingroup;
+
+import blackboard.persist.PersistenceException;
+
+
+/**
+ * Thrown when persisting a group would violate the batch_uid uniqueness
+ * rules of the group manager.
+ *
+ * @author <a href="mailto:peter [at] fokkinga.nl">Peter Fokkinga</a>
+ */
+public class DuplicateBatchUidException extends PersistenceException {
+	private static final long serialVersionUID = 1L;
+
+	public DuplicateBatchUidException(String msg) {
+		super(msg);
+	}
+}
@@ -0,0 +1,520 @@
+/*
+ * Copyright 2015 Peter R. Fokkinga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.fokkinga.bb.admingroup;
+
+import blackboard.data.course.Course;
+import blackboard.persist.Id;
+import blackboard.persist.KeyNotFoundException;
+import blackboard.persist.PersistenceException;
+import blackboard.persist.PersistenceRuntimeException;
+import blackboard.persist.course.CourseDbLoader;
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.util.*;
+
+import static nl.fokkinga.bb.Util.isEmpty;
+
+
+/**
+ * Imports the {@code <group>} records of an IMS Enterprise feed. The feed is
+ * read with StAX and written in batches, so memory use does not depend on
+ * the size of the feed. Everything but the {@code <group>} records (persons,
+ * memberships) is skipped.
+ * <p>
+ * A record is mapped onto an {@link AdminGroup} as follows:</p>
+ * <ul>
+ * <li>{@code sourcedid/source} and {@code sourcedid/id} become the sourced
+ * id of the group (see {@link AdminGroup#setSourcedId(String, String)})</li>
+ * <li>{@code description/short} (or {@code description/long} when there is no
+ * short description) becomes the title</li>
+ * <li>a record with {@code grouptype/typevalue} equal to the group set type
+ * (see {@link #setGroupSetType(String)}) becomes a group set</li>
+ * <li>a parent relationship ({@code relation="1"}) refers either to a group
+ * set (by its sourced id) or to a course (by the course's batch_uid, which
+ * is the {@code id} of the parent's sourcedid)</li>
+ * <li>{@code recstatus="3"} deletes the group</li>
+ * </ul>
+ * <p>
+ * Group sets are written before the groups of the same batch, so a group set
+ * only needs to precede its groups in the feed somewhere. A batch never holds
+ * two records for the same group, so a later record for a group is applied
+ * after the earlier ones. Existing groups are updated; a group whose parent
+ * group set changed is moved once it has been written. A record whose
+ * batch_uid is used by more than one group fails, the other records of its
+ * batch are still written.</p>
+ *
+ * @author <a href="mailto:peter [at] fokkinga.nl">Peter Fokkinga</a>
+ */
+public class EnterpriseGroupImporter {
+	/**
+	 * Number of records written at once, unless set otherwise.
+	 */
+	public static final int DEFAULT_BATCH_SIZE = AdminGroupManager.DEFAULT_CHUNK_SIZE;
+
+	/**
+	 * The {@code grouptype/typevalue} of group sets, unless set otherwise.
+	 */
+	public static final String DEFAULT_GROUP_SET_TYPE = "Group Set";
+
+	private static final String RECSTATUS_DELETE = "3";
+	private static final String RELATION_PARENT = "1";
+	// bounds the memory used for resolving parents
+	private static final int MAX_CACHED_PARENTS = 10000;
+
+	private final AdminGroupManager mngr;
+	private int batchSize = DEFAULT_BATCH_SIZE;
+	private String groupSetType = DEFAULT_GROUP_SET_TYPE;
+
+	// batch_uid of group set -> group set (only ID, course ID and set flag are used)
+	private final Cache<String, Optional<AdminGroup>> groupSets = CacheBuilder.newBuilder()
+			.maximumSize(MAX_CACHED_PARENTS).build();
+	// batch_uid of course -> course ID
+	private final Cache<String, Optional<Id>> courses = CacheBuilder.newBuilder()
+			.maximumSize(MAX_CACHED_PARENTS).build();
+
+
+	/**
+	 * @param mngr the manager that writes the groups; should be a manager
+	 *             returning modifiable groups, like the strict manager
+	 */
+	public EnterpriseGroupImporter(AdminGroupManager mngr) {
+		this.mngr = mngr;
+	}
+
+
+	/**
+	 * @param batchSize the number of records written at once; should be positive
+	 * @throws IllegalArgumentException when {@code batchSize} is not positive
+	 */
+	public void setBatchSize(int batchSize) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("setBatchSize: parameter 'batchSize' should be positive");
+		}
+		this.batchSize = batchSize;
+	}
+
+
+	/**
+	 * @param groupSetType the {@code grouptype/typevalue} that marks a record
+	 *                     as a group set
+	 */
+	public void setGroupSetType(String groupSetType) {
+		this.groupSetType = groupSetType;
+	}
+
+
+	/**
+	 * Reads the feed and writes its groups. Records that cannot be written
+	 * are reported in the result, the import continues with the next record.
+	 *
+	 * @param in the IMS Enterprise XML; not closed by this method
+	 * @return the outcome of the import
+	 * @throws XMLStreamException when the feed is not well-formed XML
+	 */
+	public Result importGroups(InputStream in) throws XMLStreamException {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+
+		Result result = new Result();
+		List<GroupRecord> batch = new ArrayList<>(batchSize);
+		Set<String> batchUids = new HashSet<>();
+		XMLStreamReader reader = factory.createXMLStreamReader(in);
+		try {
+			while (reader.hasNext()) {
+				if (reader.next() == XMLStreamConstants.START_ELEMENT && "group".equals(reader.getLocalName())) {
+					GroupRecord rec = readGroup(reader);
+					if (!rec.isValid()) {
+						result.addFailure(rec.batchUid(),
+								new IllegalArgumentException("group without sourcedid/source or sourcedid/id"));
+						continue;
+					}
+					/*
+					 * a batch is not written in feed order (deletes, group
+					 * sets, groups), so a record for a group that is already
+					 * in the batch has to wait for the next one
+					 */
+					if (batch.size() >= batchSize || !batchUids.add(rec.batchUid())) {
+						write(batch, result);
+						batch.clear();
+						batchUids.clear();
+						batchUids.add(rec.batchUid());
+					}
+					batch.add(rec);
+				}
+			}
+			write(batch, result);
+		} finally {
+			reader.close();
+		}
+		return result;
+	}
+
+
+	/*
+	 * the reader is positioned at <group>, afterwards at </group>
+	 */
+	private GroupRecord readGroup(XMLStreamReader reader) throws XMLStreamException {
+		GroupRecord rec = new GroupRecord();
+		rec.recstatus = reader.getAttributeValue(null, "recstatus");
+		String shortDesc = null, longDesc = null;
+		int depth = 1;
+		while (depth > 0) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+			} else if (event == XMLStreamConstants.START_ELEMENT) {
+				String name = reader.getLocalName();
+				if (depth == 1 && "sourcedid".equals(name)) {
+					String[] sourcedId = readSourcedId(reader);
+					rec.source = sourcedId[0];
+					rec.id = sourcedId[1];
+				} else if ("typevalue".equals(name)) {
+					rec.type = reader.getElementText().trim();
+				} else if ("short".equals(name)) {
+					shortDesc = reader.getElementText().trim();
+				} else if ("long".equals(name)) {
+					longDesc = reader.getElementText().trim();
+				} else if ("relationship".equals(name)) {
+					readRelationship(reader, rec);
+				} else {
+					depth++;
+				}
+			}
+		}
+		rec.title = isEmpty(shortDesc) ? longDesc : shortDesc;
+		return rec;
+	}
+
+
+	/*
+	 * the reader is positioned at <sourcedid>, afterwards at </sourcedid>
+	 */
+	private static String[] readSourcedId(XMLStreamReader reader) throws XMLStreamException {
+		String[] sourcedId = new String[2];
+		int depth = 1;
+		while (depth > 0) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+			} else if (event == XMLStreamConstants.START_ELEMENT) {
+				if ("source".equals(reader.getLocalName())) {
+					sourcedId[0] = reader.getElementText().trim();
+				} else if ("id".equals(reader.getLocalName())) {
+					sourcedId[1] = reader.getElementText().trim();
+				} else {
+					depth++;
+				}
+			}
+		}
+		return sourcedId;
+	}
+
+
+	/*
+	 * the reader is positioned at <relationship>, afterwards at </relationship>
+	 */
+	private static void readRelationship(XMLStreamReader reader, GroupRecord rec) throws XMLStreamException {
+		boolean parent = RELATION_PARENT.equals(reader.getAttributeValue(null, "relation"));
+		int depth = 1;
+		while (depth > 0) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+			} else if (event == XMLStreamConstants.START_ELEMENT) {
+				if ("sourcedid".equals(reader.getLocalName())) {
+					String[] sourcedId = readSourcedId(reader);
+					if (parent && !isEmpty(sourcedId[1])) {
+						rec.parents.add(sourcedId);
+					}
+				} else {
+					depth++;
+				}
+			}
+		}
+	}
+
+
+	private void write(List<GroupRecord> batch, Result result) {
+		if (batch.isEmpty()) {
+			return;
+		}
+		List<String> uids = new ArrayList<>(batch.size());
+		for (GroupRecord rec : batch) {
+			uids.add(rec.batchUid());
+		}
+		Map<String, IllegalStateException> duplicates = new HashMap<>();
+		Map<String, AdminGroup> existing = loadByBatchUids(uids, duplicates);
+
+		List<Id> deletes = new ArrayList<>();
+		List<GroupRecord> sets = new ArrayList<>();
+		List<GroupRecord> groups = new ArrayList<>();
+		for (GroupRecord rec : batch) {
+			if (duplicates.containsKey(rec.batchUid())) {
+				result.addFailure(rec.batchUid(), duplicates.get(rec.batchUid()));
+			} else if (RECSTATUS_DELETE.equals(rec.recstatus)) {
+				AdminGroup grp = existing.get(rec.batchUid());
+				if (grp != null) {
+					deletes.add(grp.getId());
+				}
+				groupSets.invalidate(rec.batchUid());
+			} else if (groupSetType.equalsIgnoreCase(rec.type)) {
+				sets.add(rec);
+			} else {
+				groups.add(rec);
+			}
+		}
+		if (!deletes.isEmpty()) {
+			mngr.deleteGroupsByIds(deletes);
+			result.deleted += deletes.size();
+		}
+		// group sets first, so the groups of this batch can refer to them
+		persist(sets, existing, result);
+		persist(groups, existing, result);
+	}
+
+
+	/*
+	 * the manager refuses the whole lookup when one of the batch_uid values
+	 * is used by several groups; the batch_uid values are then looked up one
+	 * by one, so only the duplicates fail
+	 */
+	private Map<String, AdminGroup> loadByBatchUids(Collection<String> uids,
+			Map<String, IllegalStateException> duplicates) {
+		try {
+			return mngr.loadByBatchUids(uids);
+		} catch (IllegalStateException e) {
+			Map<String, AdminGroup> found = new HashMap<>(uids.size() * 2);
+			for (String uid : uids) {
+				try {
+					AdminGroup grp = mngr.loadSingleByBatchUid(uid);
+					if (grp != null) {
+						found.put(uid, grp);
+					}
+				} catch (IllegalStateException duplicate) {
+					duplicates.put(uid, duplicate);
+				}
+			}
+			return found;
+		}
+	}
+
+
+	private void persist(List<GroupRecord> records, Map<String, AdminGroup> existing, Result result) {
+		resolveGroupSets(records);
+		List<AdminGroup> grps = new ArrayList<>(records.size());
+		// existing group -> the group set it should be moved to
+		Map<AdminGroup, Id> pendingMoves = new IdentityHashMap<>();
+		for (GroupRecord rec : records) {
+			AdminGroup set = null;
+			Id crsId = null;
+			for (String[] parent : rec.parents) {
+				Optional<AdminGroup> found = groupSets.getIfPresent(parentSetUid(parent));
+				if (found != null && found.isPresent()) {
+					set = found.get();
+					crsId = set.getCourseId();
+				} else if (crsId == null) {
+					crsId = resolveCourse(parent[1]);
+				}
+			}
+
+			AdminGroup grp = existing.get(rec.batchUid());
+			if (grp == null) {
+				if (crsId == null) {
+					result.addFailure(rec.batchUid(), new KeyNotFoundException("no course or group set found for parents of " + rec.batchUid()));
+					continue;
+				}
+				grp = new AdminGroup();
+				grp.setCourseId(crsId);
+				grp.setSourcedId(rec.source, rec.id);
+				grp.setGroupSet(groupSetType.equalsIgnoreCase(rec.type));
+				if (set != null) {
+					grp.setSetId(set.getId());
+				}
+			} else if (set != null && !set.getId().equals(grp.getSetId())) {
+				// the Blackboard API only sets the group set of new groups
+				pendingMoves.put(grp, set.getId());
+			}
+			grp.setTitle(isEmpty(rec.title) ? rec.id : rec.title);
+			grps.add(grp);
+		}
+
+		BulkPersistResult persisted = mngr.persistAll(grps, batchSize);
+		result.persisted += persisted.getPersisted().size();
+		for (Map.Entry<AdminGroup, Exception> failure : persisted.getFailures().entrySet()) {
+			result.addFailure(failure.getKey().getBatchUid(), failure.getValue());
+		}
+		// only the groups that have been written are moved
+		Map<Id, List<Id>> moves = new HashMap<>();
+		for (AdminGroup grp : persisted.getPersisted()) {
+			if (grp.isGroupSet()) {
+				groupSets.put(grp.getBatchUid(), Optional.of(grp));
+			}
+			Id setId = pendingMoves.get(grp);
+			if (setId != null) {
+				List<Id> moved = moves.get(setId);
+				if (moved == null) {
+					moved = new ArrayList<>();
+					moves.put(setId, moved);
+				}
+				moved.add(grp.getId());
+			}
+		}
+		for (Map.Entry<Id, List<Id>> move : moves.entrySet()) {
+			result.moved += mngr.addGroupsToGroupSet(move.getValue(), move.getKey()).size();
+		}
+	}
+
+
+	/*
+	 * loads the parent group sets that have not been seen before, all at once
+	 */
+	private void resolveGroupSets(List<GroupRecord> records) {
+		Set<String> unknown = new HashSet<>();
+		for (GroupRecord rec : records) {
+			for (String[] parent : rec.parents) {
+				String uid = parentSetUid(parent);
+				if (uid != null && groupSets.getIfPresent(uid) == null) {
+					unknown.add(uid);
+				}
+			}
+		}
+		if (!unknown.isEmpty()) {
+			// a group set whose batch_uid is not unique is treated as not found
+			Map<String, AdminGroup> found = loadByBatchUids(unknown, new HashMap<String, IllegalStateException>());
+			for (String uid : unknown) {
+				AdminGroup set = found.get(uid);
+				groupSets.put(uid, Optional.fromNullable(set != null && set.isGroupSet() ? set : null));
+			}
+		}
+	}
+
+
+	private static String parentSetUid(String[] parent) {
+		return isEmpty(parent[0]) ? null : parent[0] + GroupCode.SOURCEDID_SEPARATOR + parent[1];
+	}
+
+
+	private Id resolveCourse(String uid) {
+		Optional<Id> crsId = courses.getIfPresent(uid);
+		if (crsId == null) {
+			try {
+				Course crs = CourseDbLoader.Default.getInstance().loadByBatchUid(uid);
+				crsId = Optional.of(crs.getId());
+			} catch (KeyNotFoundException e) {
+				crsId = Optional.absent();
+			} catch (PersistenceException e) {
+				throw new PersistenceRuntimeException("resolveCourse(" + uid + "): " + e.getMessage(), e);
+			}
+			courses.put(uid, crsId);
+		}
+		return crsId.orNull();
+	}
+
+
+	private static class GroupRecord {
+		String recstatus, source, id, type, title;
+		final List<String[]> parents = new ArrayList<>(2);
+
+		boolean isValid() {
+			return !isEmpty(source) && !isEmpty(id);
+		}
+
+		String batchUid() {
+			return source + GroupCode.SOURCEDID_SEPARATOR + id;
+		}
+	}
+
+
+	/**
+	 * The outcome of an import. Only the records that failed are kept, and
+	 * no more than {@link #MAX_FAILURES} of them, so the result stays small
+	 * for large feeds.
+	 */
+	public static class Result {
+		/**
+		 * The maximum number of failures kept; any further failures are only
+		 * counted.
+		 */
+		public static final int MAX_FAILURES = 1000;
+
+		private int persisted, deleted, moved, failed;
+		private final Map<String, Exception> failures = new LinkedHashMap<>();
+
+
+		void addFailure(String uid, Exception e) {
+			failed++;
+			if (failures.size() < MAX_FAILURES) {
+				failures.put(uid, e);
+			}
+		}
+
+
+		/**
+		 * @return the number of groups and group sets inserted or updated
+		 */
+		public int getPersisted() { return persisted; }
+
+
+		/**
+		 * @return the number of groups and group sets deleted
+		 */
+		public int getDeleted() { return deleted; }
+
+
+		/**
+		 * @return the number of existing groups moved to another group set
+		 */
+		public int getMoved() { return moved; }
+
+
+		/**
+		 * @return the number of records that could not be imported, including
+		 * those beyond {@link #MAX_FAILURES}
+		 */
+		public int getFailed() { return failed; }
+
+
+		/**
+		 * @return the (first {@link #MAX_FAILURES}) records that could not be
+		 * imported together with the reason why, keyed by batch_uid
+		 * ("source#id")
+		 */
+		public Map<String, Exception> getFailures() {
+			return Collections.unmodifiableMap(failures);
+		}
+
+
+		public boolean isSuccess() {
+			return failed == 0;
+		}
+
+
+		@Override public String toString() {
+			return getClass().getSimpleName() + "{persisted=" + persisted + " deleted=" + deleted
+					+ " moved=" + moved + " failed=" + failed + "}";
+		}
+	}
+}
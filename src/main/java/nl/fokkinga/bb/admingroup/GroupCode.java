@@ -23,10 +23,11 @@ import blackboard.persist.DataType;
 import blackboard.persist.Id;
 import blackboard.persist.impl.mapping.DbObjectMap;
 import blackboard.persist.impl.mapping.annotation.*;
+import nl.fokkinga.bb.IdCodec;
 import nl.fokkinga.bb.Util;
 
-import java.nio.charset.CharsetEncoder;
-import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 
 import static nl.fokkinga.bb.Util.*;
 
@@ -53,13 +54,14 @@ public class GroupCode extends AbstractIdentifiable {
 	@Column(value = "batch_uid", def = "BatchUID")
 	private String batchUid;
 
+	// volatile, AdminGroup updates these while other threads may read them
 	@Column(value = "group_pk1", def = "GroupId")
 	@RefersTo(Group.class)
-	private Id groupId;
+	private volatile Id groupId;
 
 	@Column(value = "crsmain_pk1", def = "CourseId")
 	@RefersTo(Course.class)
-	private Id courseId;
+	private volatile Id courseId;
 
 
 	public GroupCode() {}
@@ -90,24 +92,29 @@ public class GroupCode extends AbstractIdentifiable {
 	 * group id was NULL or not a proper (already persisted) id.
 	 */
 	public static String generateBatchUid(Id grpId) {
-		if (Id.isValidPkId(grpId)) {
-			return BBLEARN_SOURCEDID_SOURCE + SOURCEDID_SEPARATOR + Util.toNumber(grpId);
-		}
-		return "";
+		return Id.isValidPkId(grpId) ? generateBatchUid(Util.toNumber(grpId)) : "";
+	}
+
+
+	/*
+	 * same as generateBatchUid(Id) for a primary key read from the database
+	 */
+	static String generateBatchUid(long pk1) {
+		return pk1 > 0 ? IdCodec.formatSourcedId(BBLEARN_SOURCEDID_SOURCE, pk1) : "";
 	}
 
 
 	/**
-	 * Extracts the group id from a batch_uid as
+	 * Extracts the group id from a batch_uid as generated by
+	 * {@link #generateBatchUid(Id)}.
+	 *
 	 * @param uid a batch_uid
 	 * @return the numerical value of a group id (aka pk1), or -1 if the given
-	 *         batch_uid does not refer to a Blackboard Learn group id
+	 *         batch_uid does not refer to a Blackboard Learn group id (this
+	 *         includes malformed values like "bblearn#abc")
 	 */
 	static long extractPk1(String uid) {
-		if (isEmpty(uid) || !uid.startsWith(BBLEARN_SOURCEDID_SOURCE + SOURCEDID_SEPARATOR)) {
-			return -1;
-		}
-		return Long.valueOf(uid.substring(uid.indexOf(SOURCEDID_SEPARATOR) + 1));
+		return IdCodec.parseSourcedPk1(uid, BBLEARN_SOURCEDID_SOURCE);
 	}
 
 
@@ -145,7 +152,7 @@ public class GroupCode extends AbstractIdentifiable {
 		if (isEmpty(batchUid)) {
 			return Id.isValidPkId(groupId) ? BBLEARN_SOURCEDID_SOURCE : "";
 		}
-		int idx = batchUid.indexOf(SOURCEDID_SEPARATOR);
+		int idx = IdCodec.separatorIndex(batchUid);
 		return idx > 0 ? batchUid.substring(0, idx) : "";
 	}
 
@@ -163,7 +170,7 @@ public class GroupCode extends AbstractIdentifiable {
 		if (isEmpty(batchUid)) {
 			return Id.isValidPkId(groupId) ? String.valueOf(Util.toNumber(groupId)) : "";
 		}
-		int idx = batchUid.indexOf(SOURCEDID_SEPARATOR);
+		int idx = IdCodec.separatorIndex(batchUid);
 		return idx > 0 ? batchUid.substring(idx + 1) : batchUid;
 	}
 
@@ -182,6 +189,12 @@ public class GroupCode extends AbstractIdentifiable {
 	}
 
 
+	// the stored value as-is, like the Blackboard mapping loads it
+	void setStoredBatchUid(String value) {
+		batchUid = value;
+	}
+
+
 	/**
 	 * Gets the batch_uid or a generated one if batch_uid is not explicitly set.
 	 *
@@ -220,30 +233,53 @@ public class GroupCode extends AbstractIdentifiable {
 	 * requirements
 	 */
 	public void validate() throws ValidationException {
-		ValidationException ve = new ValidationException();
+		List<ValidationWarning> warnings = check();
+		if (!warnings.isEmpty()) {
+			throw GroupValidator.toException(warnings);
+		}
+	}
+
 
+	/**
+	 * Same checks as {@link #validate()}, without creating an exception.
+	 *
+	 * @return the failed requirements; an empty list when the group code is valid
+	 */
+	List<ValidationWarning> check() {
+		List<ValidationWarning> warnings = new ArrayList<>(0);
 		if (!Id.isValidPkId(courseId)) {
-			ve.addWarning(new ValidationWarning("Required field not set", "CourseId value must be set."));
+			warnings.add(new ValidationWarning("Required field not set", "CourseId value must be set."));
 		}
 		// not checking isValidPkId as that would prevent AdminGroup.validate
 		// from checking the group code of a new group
 		if (!Id.isValid(groupId)) {
-			ve.addWarning(new ValidationWarning("Required field not set", "GroupId value must be set."));
+			warnings.add(new ValidationWarning("Required field not set", "GroupId value must be set."));
 		}
 		if (isEmpty(batchUid)) {
-			ve.addWarning(new ValidationWarning("Required field not set", "Batch_UID value must be set."));
+			warnings.add(new ValidationWarning("Required field not set", "Batch_UID value must be set."));
 		} else {
 			if (batchUid.length() > 100) {
-				ve.addWarning(new ValidationWarning("Batch_uid '" + batchUid + "' is longer than 100 characters"));
+				warnings.add(new ValidationWarning("Batch_uid '" + batchUid + "' is longer than 100 characters"));
 			}
-			CharsetEncoder enc = StandardCharsets.ISO_8859_1.newEncoder();
-			if (!enc.canEncode(batchUid)) {
-				ve.addWarning(new ValidationWarning("Batch_uid '" + batchUid + "' contains non-ISO_8859 characters."));
+			if (!isIso8859(batchUid)) {
+				warnings.add(new ValidationWarning("Batch_uid '" + batchUid + "' contains non-ISO_8859 characters."));
 			}
 		}
-		if (ve.getWarnings().size() > 0) {
-			throw ve;
+		return warnings;
+	}
+
+
+	/*
+	 * same outcome as ISO_8859_1.newEncoder().canEncode(str), but without
+	 * creating an encoder: ISO-8859-1 maps exactly onto the first 256 chars
+	 */
+	private static boolean isIso8859(String str) {
+		for (int i = 0, len = str.length(); i < len; i++) {
+			if (str.charAt(i) > '\u00FF') {
+				return false;
+			}
 		}
+		return true;
 	}
 
 
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2015 Peter R. Fokkinga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.fokkinga.bb.admingroup;
+
+import blackboard.persist.Id;
+
+import java.util.*;
+
+
+/**
+ * Loads the group codes of a number of groups together: the first group
+ * that needs its group code loads those of all groups in the batch that
+ * have not been loaded yet, with one query per {@link JdbcSupport#MAX_IN_LIST}
+ * groups instead of one query per group.
+ *
+ * @author <a href="mailto:peter [at] fokkinga.nl">Peter Fokkinga</a>
+ */
+final class GroupCodeBatch {
+	private List<AdminGroup> groups;
+
+
+	private GroupCodeBatch(List<AdminGroup> groups) {
+		this.groups = groups;
+	}
+
+
+	/**
+	 * Puts the groups whose group code has not been loaded yet in a new
+	 * batch; groups that already have been loaded are left alone.
+	 *
+	 * @param grps the groups
+	 */
+	static void attach(Collection<? extends AdminGroup> grps) {
+		List<AdminGroup> unloaded = new ArrayList<>(grps.size());
+		for (AdminGroup grp : grps) {
+			if (!grp.isGroupCodeLoaded() && !grp.isNew()) {
+				unloaded.add(grp);
+			}
+		}
+		if (unloaded.size() > 1) {
+			GroupCodeBatch batch = new GroupCodeBatch(unloaded);
+			for (AdminGroup grp : unloaded) {
+				grp.setGroupCodeBatch(batch);
+			}
+		}
+	}
+
+
+	/**
+	 * Loads the group codes of all groups in the batch that still need one;
+	 * only the first call queries the database.
+	 */
+	synchronized void load() {
+		if (groups == null) {
+			return;
+		}
+		List<Id> grpIds = new ArrayList<>(groups.size());
+		for (AdminGroup grp : groups) {
+			if (!grp.isGroupCodeLoaded() && !grp.isNew()) {
+				grpIds.add(grp.getId());
+			}
+		}
+		Map<Id, List<GroupCode>> codes = GroupCodeDAO.get().loadByGroupIds(grpIds);
+		for (AdminGroup grp : groups) {
+			List<GroupCode> found = codes.get(grp.getId());
+			grp.setLoadedGroupCode(found != null ? found.get(0) : null);
+		}
+		// the groups no longer have to be reachable from each other
+		groups = null;
+	}
+}
@@ -16,20 +16,26 @@
 
 package nl.fokkinga.bb.admingroup;
 
+import blackboard.data.course.Course;
+import blackboard.data.course.Group;
 import blackboard.persist.Id;
+import blackboard.persist.PersistenceException;
 import blackboard.persist.PersistenceRuntimeException;
-import blackboard.persist.course.impl.GroupDbMap;
 import blackboard.persist.dao.impl.SimpleDAO;
-import blackboard.persist.impl.SimpleJoinQuery;
 import blackboard.persist.impl.SimpleSelectQuery;
 import blackboard.platform.query.Criteria;
 import blackboard.platform.query.CriterionBuilder;
 import com.google.common.base.Supplier;
 import com.google.common.base.Suppliers;
+import com.google.common.collect.Iterables;
 
-import java.util.List;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
 
-import static blackboard.persist.impl.SimpleJoinQuery.JoinType.Inner;
 import static nl.fokkinga.bb.Util.notEmpty;
 
 
@@ -52,6 +58,34 @@ import static nl.fokkinga.bb.Util.notEmpty;
  * @see GroupCode
  */
 public class GroupCodeDAO extends SimpleDAO<GroupCode> {
+	/**
+	 * Name of the optional unique index on {@code bb_groupcode(batch_uid)};
+	 * the DDL is in the resource {@code bb_groupcode_batch_uid_uk.sql} next
+	 * to this class.
+	 */
+	public static final String BATCH_UID_INDEX = "bb_groupcode_batch_uid_uk";
+
+	/*
+	 * constant SQL for the queries with a fixed shape, so the statement cache
+	 * of the driver or connection pool can reuse the prepared statements
+	 */
+	private static final String SELECT_SQL = "SELECT pk1, batch_uid, group_pk1, crsmain_pk1 FROM bb_groupcode";
+	private static final String BY_BATCH_UID_SQL = SELECT_SQL + " WHERE batch_uid=?";
+	private static final String BY_BATCH_UID_PREFIX_SQL = SELECT_SQL + " WHERE batch_uid LIKE ? ESCAPE '\\'";
+	private static final String BY_GROUP_SQL = SELECT_SQL + " WHERE group_pk1=?";
+	private static final String BY_GROUP_SET_SQL = SELECT_SQL + " WHERE group_pk1 IN ("
+			+ String.format(AdminGroupDAO.GROUP_SET_CHILDREN_SQL, "?") + ")";
+
+	private static final JdbcSupport.RowMapper<GroupCode> CODE_MAPPER = new JdbcSupport.RowMapper<GroupCode>() {
+		public GroupCode map(ResultSet rst) throws SQLException, PersistenceException {
+			GroupCode code = new GroupCode();
+			code.setId(JdbcSupport.toId(GroupCode.DATA_TYPE, rst.getLong(1)));
+			code.setStoredBatchUid(rst.getString(2));
+			code.setGroupId(JdbcSupport.getId(rst, 3, Group.DATA_TYPE));
+			code.setCourseId(JdbcSupport.getId(rst, 4, Course.DATA_TYPE));
+			return code;
+		}
+	};
 
 	private static final Supplier<GroupCodeDAO> DAO_SUPPLIER = Suppliers.memoize(
 			new Supplier<GroupCodeDAO>() {
@@ -85,7 +119,57 @@ public class GroupCodeDAO extends SimpleDAO<GroupCode> {
 	 */
 	@Override
 	public void persist(GroupCode groupCode) throws PersistenceRuntimeException {
-		super.persist(groupCode);
+		StatementBudget.count("GroupCodeDAO.persist");
+		long start = OperationMetrics.start();
+		boolean failed = true;
+		try {
+			super.persist(groupCode);
+			failed = false;
+		} finally {
+			OperationMetrics.record("GroupCodeDAO.persist", start, 1, failed);
+		}
+	}
+
+
+	/**
+	 * Will insert or update the given group codes. Changed group codes are
+	 * updated with a single JDBC batch; new group codes are inserted one at a
+	 * time by Blackboard's persister, which generates their ID the way it
+	 * does for its own tables, so they have a valid ID afterwards. Like
+	 * {@link #persist} the group codes are not validated.
+	 *
+	 * @param codes the objects to persist
+	 * @throws PersistenceRuntimeException when the objects could not be persisted
+	 * @see GroupCode#validate()
+	 */
+	public void persistAll(final Collection<GroupCode> codes) throws PersistenceRuntimeException {
+		final List<GroupCode> updates = new ArrayList<>();
+		for (GroupCode code : codes) {
+			if (Id.isValidPkId(code.getId())) {
+				updates.add(code);
+			} else {
+				persist(code);
+			}
+		}
+		if (updates.isEmpty()) {
+			return;
+		}
+		JdbcSupport.execute("GroupCodeDAO.persistAll", new JdbcSupport.Work<Void>() {
+			public Void execute(Connection con) throws SQLException {
+				try (PreparedStatement stmt = con.prepareStatement(
+						"UPDATE bb_groupcode SET batch_uid=?, group_pk1=?, crsmain_pk1=? WHERE pk1=?")) {
+					for (GroupCode code : updates) {
+						stmt.setString(1, code.getBatchUid());
+						JdbcSupport.setId(stmt, 2, code.getGroupId());
+						JdbcSupport.setId(stmt, 3, code.getCourseId());
+						JdbcSupport.setId(stmt, 4, code.getId());
+						stmt.addBatch();
+					}
+					stmt.executeBatch();
+				}
+				return null;
+			}
+		});
 	}
 
 
@@ -99,10 +183,42 @@ public class GroupCodeDAO extends SimpleDAO<GroupCode> {
 		if (grpId == null) {
 			throw new IllegalArgumentException("deleteByGroupId: parameter 'grpId' should not be NULL");
 		}
-		List<GroupCode> codes = loadByGroupId(grpId);
-		for (GroupCode groupCode : codes) {
-			getDAOSupport().delete(groupCode);
+		deleteByGroupIds(Collections.singleton(grpId));
+	}
+
+
+	/**
+	 * Will delete all (if any) group codes related to the given groups, with
+	 * one statement per {@link JdbcSupport#MAX_IN_LIST} groups.
+	 *
+	 * @param grpIds the IDs of the groups to clear all group codes for
+	 * @return the number of group codes deleted
+	 * @throws IllegalArgumentException when the {@code grpIds} parameter is NULL
+	 */
+	public int deleteByGroupIds(Collection<Id> grpIds) {
+		if (grpIds == null) {
+			throw new IllegalArgumentException("deleteByGroupIds: parameter 'grpIds' should not be NULL");
+		}
+		return JdbcSupport.updateIn("GroupCodeDAO.deleteByGroupIds", "DELETE FROM bb_groupcode WHERE group_pk1 IN (%s)", grpIds);
+	}
+
+
+	/**
+	 * Will delete the group codes of all groups that are part of the given
+	 * group sets (the same groups as {@link #loadByGroupSetId} finds), with
+	 * one statement per {@link JdbcSupport#MAX_IN_LIST} group sets. The group
+	 * codes of the group sets themselves are <em>not</em> deleted.
+	 *
+	 * @param grpSetIds the IDs of the group sets
+	 * @return the number of group codes deleted
+	 * @throws IllegalArgumentException when the {@code grpSetIds} parameter is NULL
+	 */
+	public int deleteByGroupSetIds(Collection<Id> grpSetIds) {
+		if (grpSetIds == null) {
+			throw new IllegalArgumentException("deleteByGroupSetIds: parameter 'grpSetIds' should not be NULL");
 		}
+		return JdbcSupport.updateIn("GroupCodeDAO.deleteByGroupSetIds", "DELETE FROM bb_groupcode WHERE group_pk1 IN ("
+				+ AdminGroupDAO.GROUP_SET_CHILDREN_SQL + ")", grpSetIds);
 	}
 
 
@@ -124,13 +240,12 @@ public class GroupCodeDAO extends SimpleDAO<GroupCode> {
 		if (src == null) {
 			throw new IllegalArgumentException("loadBySourcedId: parameter 'src' should not be NULL");
 		}
-		SimpleSelectQuery query = new SimpleSelectQuery(GroupCode.MAP);
 		if (notEmpty(id)) {
-			query.addWhere("BatchUID", src + GroupCode.SOURCEDID_SEPARATOR + id);
-		} else {
-			query.addLikeWhere("BatchUID", src + "%");
+			return JdbcSupport.query("GroupCodeDAO.loadBySourcedId", BY_BATCH_UID_SQL, CODE_MAPPER,
+					src + GroupCode.SOURCEDID_SEPARATOR + id);
 		}
-		return getDAOSupport().loadList(query);
+		return JdbcSupport.query("GroupCodeDAO.loadBySourcedId", BY_BATCH_UID_PREFIX_SQL, CODE_MAPPER,
+				JdbcSupport.escapeLike(src) + "%");
 	}
 
 
@@ -148,9 +263,40 @@ public class GroupCodeDAO extends SimpleDAO<GroupCode> {
 		if (grpId == null) {
 			throw new IllegalArgumentException("loadByGroupId: parameter 'grpId' should not be NULL");
 		}
-		SimpleSelectQuery query = new SimpleSelectQuery(GroupCode.MAP);
-		query.addWhere("GroupId", grpId);
-		return getDAOSupport().loadList(query);
+		return JdbcSupport.query("GroupCodeDAO.loadByGroupId", BY_GROUP_SQL, CODE_MAPPER, grpId);
+	}
+
+
+	/**
+	 * Multi-get variant of {@link #loadByGroupId}; the group IDs are sent to
+	 * the database in chunks of at most {@link JdbcSupport#MAX_IN_LIST} values.
+	 *
+	 * @param grpIds the IDs of the groups to find the group codes for
+	 * @return the group codes per group ID; groups without group code are not
+	 * in the map
+	 * @throws IllegalArgumentException when the {@code grpIds} parameter is NULL
+	 */
+	public Map<Id, List<GroupCode>> loadByGroupIds(Collection<Id> grpIds) {
+		if (grpIds == null) {
+			throw new IllegalArgumentException("loadByGroupIds: parameter 'grpIds' should not be NULL");
+		}
+		Map<Id, List<GroupCode>> result = new HashMap<>(grpIds.size() * 2);
+		for (List<Id> chunk : Iterables.partition(new LinkedHashSet<>(grpIds), JdbcSupport.MAX_IN_LIST)) {
+			SimpleSelectQuery query = new SimpleSelectQuery(GroupCode.MAP, "gc");
+			Criteria criteria = query.getCriteria();
+			CriterionBuilder gcBuilder = criteria.createBuilder("gc");
+			criteria.add(gcBuilder.in("GroupId", chunk));
+			List<GroupCode> codes = JdbcSupport.loadList("GroupCodeDAO.loadByGroupIds", getDAOSupport(), query);
+			for (GroupCode code : codes) {
+				List<GroupCode> grpCodes = result.get(code.getGroupId());
+				if (grpCodes == null) {
+					grpCodes = new ArrayList<>(1);
+					result.put(code.getGroupId(), grpCodes);
+				}
+				grpCodes.add(code);
+			}
+		}
+		return result;
 	}
 
 
@@ -168,13 +314,7 @@ public class GroupCodeDAO extends SimpleDAO<GroupCode> {
 		if (grpSetId == null) {
 			throw new IllegalArgumentException("loadByGroupSetId: parameter 'grpSetId' should not be NULL");
 		}
-		SimpleJoinQuery query = new SimpleJoinQuery(GroupCode.MAP, "gc");
-		query.setSingleObject(true);
-		query.addJoin(Inner, GroupDbMap.MAP, "g", "id", "GroupId", false);
-		Criteria criteria = query.getCriteria();
-		CriterionBuilder cuBuilder = criteria.createBuilder("g");
-		criteria.add(cuBuilder.equal("setId", grpSetId));
-		return getDAOSupport().loadList(query);
+		return JdbcSupport.query("GroupCodeDAO.loadByGroupSetId", BY_GROUP_SET_SQL, CODE_MAPPER, grpSetId);
 	}
 
 
@@ -192,9 +332,7 @@ public class GroupCodeDAO extends SimpleDAO<GroupCode> {
 		if (uid == null) {
 			throw new IllegalArgumentException("loadByBatchUid: parameter 'uid' should not be NULL");
 		}
-		SimpleSelectQuery query = new SimpleSelectQuery(GroupCode.MAP);
-		query.addWhere("BatchUID", uid);
-		return getDAOSupport().loadList(query);
+		return JdbcSupport.query("GroupCodeDAO.loadByBatchUid", BY_BATCH_UID_SQL, CODE_MAPPER, uid);
 	}
 
 
@@ -218,16 +356,119 @@ public class GroupCodeDAO extends SimpleDAO<GroupCode> {
 		if ("".equals(uid)) {
 			return false;
 		}
-		SimpleSelectQuery query = new SimpleSelectQuery(GroupCode.MAP);
-		Criteria criteria = query.getCriteria();
-		CriterionBuilder builder = criteria.createBuilder();
-		criteria.add(builder.equal("BatchUID", uid));
-		boolean withConstraint = Id.isValidPkId(grpId);
-		if (withConstraint) {
-			criteria.add(builder.notEqual("GroupId", grpId));
+		if (Id.isValidPkId(grpId)) {
+			return JdbcSupport.countRows("GroupCodeDAO.isUnique", "SELECT 1 FROM bb_groupcode WHERE batch_uid=? AND group_pk1<>?",
+					1, uid, grpId) == 0;
+		}
+		return JdbcSupport.countRows("GroupCodeDAO.isUnique", "SELECT 1 FROM bb_groupcode WHERE batch_uid=?", 2, uid) <= 1;
+	}
+
+
+	/**
+	 * Check whether any group uses the batch_uid. This costs a single index
+	 * lookup; no group code is loaded.
+	 *
+	 * @param uid the batch_uid to search for; should NOT be NULL
+	 * @return true when at least one group code has the batch_uid
+	 * @throws IllegalArgumentException when the {@code uid} parameter is NULL
+	 */
+	public boolean existsByBatchUid(String uid) {
+		if (uid == null) {
+			throw new IllegalArgumentException("existsByBatchUid: parameter 'uid' should not be NULL");
+		}
+		return JdbcSupport.countRows("GroupCodeDAO.existsByBatchUid", "SELECT 1 FROM bb_groupcode WHERE batch_uid=?", 1, uid) > 0;
+	}
+
+
+	/**
+	 * Bulk variant of {@link #isUnique(String, Id)} without the group
+	 * constraint: finds out which of the given batch_uid values are used by
+	 * more than one group.
+	 *
+	 * @param uids the batch_uid values to check; should NOT be NULL
+	 * @return the batch_uid values that are in use by more than one group; the
+	 * result may be empty but is never NULL
+	 * @throws IllegalArgumentException when the {@code uids} parameter is NULL
+	 */
+	public Set<String> findNonUnique(Collection<String> uids) {
+		if (uids == null) {
+			throw new IllegalArgumentException("findNonUnique: parameter 'uids' should not be NULL");
+		}
+		final Set<String> result = new HashSet<>();
+		for (final List<String> chunk : Iterables.partition(new LinkedHashSet<>(uids), JdbcSupport.MAX_IN_LIST)) {
+			JdbcSupport.execute("GroupCodeDAO.findNonUnique", new JdbcSupport.Work<Void>() {
+				public Void execute(Connection con) throws SQLException {
+					String sql = "SELECT batch_uid FROM bb_groupcode WHERE batch_uid IN ("
+							+ JdbcSupport.placeholders(chunk.size())
+							+ ") GROUP BY batch_uid HAVING COUNT(DISTINCT group_pk1) > 1";
+					try (PreparedStatement stmt = con.prepareStatement(sql)) {
+						int idx = 1;
+						for (String uid : chunk) {
+							stmt.setString(idx++, uid);
+						}
+						try (ResultSet rst = stmt.executeQuery()) {
+							while (rst.next()) {
+								result.add(rst.getString(1));
+							}
+						}
+					}
+					return null;
+				}
+			});
+		}
+		return result;
+	}
+
+
+	/**
+	 * Tells whether the exception (or one of its causes) is the database
+	 * rejecting a duplicate batch_uid because of the {@link #BATCH_UID_INDEX}.
+	 *
+	 * @param t the exception thrown while persisting group codes
+	 * @return true when the exception is a violation of the unique index
+	 */
+	static boolean isBatchUidViolation(Throwable t) {
+		for (; t != null; t = t.getCause()) {
+			if (t instanceof SQLException) {
+				// batches report the failed statement as the next exception
+				for (SQLException e = (SQLException) t; e != null; e = e.getNextException()) {
+					String state = e.getSQLState();
+					String msg = e.getMessage();
+					if (state != null && state.startsWith("23") && msg != null
+							&& msg.toLowerCase(Locale.ENGLISH).contains(BATCH_UID_INDEX)) {
+						return true;
+					}
+				}
+			}
 		}
-		int numMatches = getDAOSupport().loadList(query).size();
-		return withConstraint ? (numMatches == 0) : (numMatches <= 1);
+		return false;
+	}
+
+
+	/**
+	 * Check whether the unique index {@link #BATCH_UID_INDEX} has been
+	 * created, by looking it up in the metadata of the database.
+	 *
+	 * @return true when the index exists
+	 * @throws PersistenceRuntimeException when the metadata could not be read
+	 */
+	public boolean hasBatchUidIndex() {
+		return JdbcSupport.execute("GroupCodeDAO.hasBatchUidIndex", new JdbcSupport.Work<Boolean>() {
+			public Boolean execute(Connection con) throws SQLException {
+				DatabaseMetaData meta = con.getMetaData();
+				// depending on the database the names are stored in lower or upper case
+				for (String table : new String[] { "bb_groupcode", "BB_GROUPCODE" }) {
+					try (ResultSet rst = meta.getIndexInfo(null, null, table, true, true)) {
+						while (rst.next()) {
+							if (BATCH_UID_INDEX.equalsIgnoreCase(rst.getString("INDEX_NAME"))) {
+								return true;
+							}
+						}
+					}
+				}
+				return false;
+			}
+		});
 	}
 
 
@@ -253,16 +494,12 @@ public class GroupCodeDAO extends SimpleDAO<GroupCode> {
 		} else if (!Id.isValidPkId(crsId)) {
 			throw new IllegalArgumentException("isUniqueInCourse: parameter 'crsId' should be a valid ID");
 		}
-		SimpleSelectQuery query = new SimpleSelectQuery(GroupCode.MAP);
-		Criteria criteria = query.getCriteria();
-		CriterionBuilder builder = criteria.createBuilder();
-		criteria.add(builder.equal("BatchUID", uid));
-		criteria.add(builder.equal("CourseId", crsId));
-		boolean withConstraint = Id.isValidPkId(grpId);
-		if (withConstraint) {
-			criteria.add(builder.notEqual("GroupId", grpId));
+		if (Id.isValidPkId(grpId)) {
+			return JdbcSupport.countRows("GroupCodeDAO.isUniqueInCourse",
+					"SELECT 1 FROM bb_groupcode WHERE batch_uid=? AND crsmain_pk1=? AND group_pk1<>?",
+					1, uid, crsId, grpId) == 0;
 		}
-		int numMatches = getDAOSupport().loadList(query).size();
-		return withConstraint ? (numMatches == 0) : (numMatches <= 1);
+		return JdbcSupport.countRows("GroupCodeDAO.isUniqueInCourse",
+				"SELECT 1 FROM bb_groupcode WHERE batch_uid=? AND crsmain_pk1=?", 2, uid, crsId) <= 1;
 	}
 }
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2015 Peter R. Fokkinga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.fokkinga.bb.admingroup;
+
+import nl.fokkinga.bb.IdCodec;
+import nl.fokkinga.bb.Util;
+
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * One page of the groups of a course. Pages are retrieved using keyset
+ * pagination: the token of a page holds the sort key of its last group, and
+ * the next page starts right after that key. Retrieving page N therefore
+ * costs the same as retrieving the first page.
+ * <p>
+ * The page token is the sort key in plain text (the pk1 of the course, the
+ * pk1 of the last group and, when ordered by title, its title), not an
+ * opaque or signed value. It is only accepted for the course and order it
+ * was created for, but it does not hide the title from whoever holds it.</p>
+ *
+ * @author <a href="mailto:peter [at] fokkinga.nl">Peter Fokkinga</a>
+ * @see AdminGroupManager#loadGroupsByCourseId(blackboard.persist.Id, Order, int, String)
+ */
+public class GroupPage {
+	/**
+	 * The order of the groups over the pages.
+	 */
+	public enum Order {
+		/** by pk1, the order in which the groups have been created */
+		ID('i'),
+		/** by title; groups with the same title are ordered by pk1 */
+		TITLE('t');
+
+		private final char tokenPrefix;
+
+		Order(char tokenPrefix) {
+			this.tokenPrefix = tokenPrefix;
+		}
+	}
+
+	private final List<AdminGroup> groups;
+	private final String nextPageToken;
+
+
+	GroupPage(List<AdminGroup> groups, String nextPageToken) {
+		this.groups = Collections.unmodifiableList(groups);
+		this.nextPageToken = nextPageToken;
+	}
+
+
+	/**
+	 * @return the groups on this page; may be empty but is never NULL
+	 */
+	public List<AdminGroup> getGroups() { return groups; }
+
+
+	/**
+	 * @return the token to retrieve the next page with, or NULL when this is
+	 * the last page
+	 */
+	public String getNextPageToken() { return nextPageToken; }
+
+
+	public boolean hasNext() { return nextPageToken != null; }
+
+
+	static String createToken(Order order, AdminGroup last) {
+		StringBuilder sb = new StringBuilder().append(order.tokenPrefix)
+				.append(Util.toNumber(last.getCourseId())).append('.').append(Util.toNumber(last.getId()));
+		if (order == Order.TITLE) {
+			sb.append(':').append(last.getTitle());
+		}
+		return sb.toString();
+	}
+
+
+	/**
+	 * The sort key encoded in a page token.
+	 */
+	static class Key {
+		final long pk1;
+		final String title;
+
+		/**
+		 * @param order  the order the token should have been created for
+		 * @param crsPk1 the pk1 of the course the token should have been
+		 *               created for
+		 * @param token  a token as returned by {@link #getNextPageToken()}
+		 * @throws IllegalArgumentException when the token is malformed or
+		 *                                  belongs to a different order or
+		 *                                  course
+		 */
+		Key(Order order, long crsPk1, String token) {
+			if (token.isEmpty() || token.charAt(0) != order.tokenPrefix) {
+				throw new IllegalArgumentException("not a page token for order " + order + ": " + token);
+			}
+			int dot = token.indexOf('.');
+			int end = (order == Order.TITLE) ? token.indexOf(':') : token.length();
+			if (dot < 0 || end < dot || IdCodec.parseDigits(token, 1, dot) != crsPk1) {
+				throw new IllegalArgumentException("not a page token for course " + crsPk1 + ": " + token);
+			}
+			pk1 = IdCodec.parseDigits(token, dot + 1, end);
+			if (pk1 == IdCodec.INVALID) {
+				throw new IllegalArgumentException("not a page token for order " + order + ": " + token);
+			}
+			title = (order == Order.TITLE) ? token.substring(end + 1) : null;
+		}
+
+		/**
+		 * @param order the order of the pages
+		 * @param last  the last group read so far
+		 */
+		Key(Order order, AdminGroup last) {
+			pk1 = Util.toNumber(last.getId());
+			title = (order == Order.TITLE) ? last.getTitle() : null;
+		}
+	}
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2015 Peter R. Fokkinga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.fokkinga.bb.admingroup;
+
+import blackboard.data.ValidationException;
+import blackboard.data.ValidationWarning;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+
+/**
+ * Validates groups and group codes without using exceptions, which makes it
+ * suitable for checking large numbers of groups (like an entire feed) before
+ * persisting them. The requirements are those of {@link AdminGroup#validate()}
+ * and {@link GroupCode#validate()}.
+ *
+ * @author <a href="mailto:peter [at] fokkinga.nl">Peter Fokkinga</a>
+ */
+public class GroupValidator {
+	/*
+	 * below this number of groups validating in a single thread is faster
+	 * than handing over the work
+	 */
+	private static final int SPLIT_THRESHOLD = 256;
+
+	private static final Supplier<GroupValidator> VALIDATOR_SUPPLIER = Suppliers.memoize(
+			new Supplier<GroupValidator>() {
+				public GroupValidator get() {
+					return new GroupValidator(null);
+				}
+			});
+
+	// created when first needed, removed again by shutdown
+	private static ForkJoinPool sharedPool = null;
+
+	// NULL when validateAll uses the shared pool
+	private final ForkJoinPool pool;
+
+
+	/**
+	 * @param pool the pool that runs {@link #validateAll}; the caller owns
+	 *             the pool and should shut it down when it is no longer
+	 *             needed
+	 */
+	public GroupValidator(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+
+	/**
+	 * Gets the shared validator. When {@link #validateAll} needs more than
+	 * one thread it uses a fork-join pool with one thread per available
+	 * processor, which is created the first time it is needed and then
+	 * reused. {@link AdminGroupManagerFactory#shutdown()} shuts it down, so
+	 * no threads are left behind when the building block is undeployed.
+	 *
+	 * @return the shared validator
+	 */
+	public static GroupValidator get() {
+		return VALIDATOR_SUPPLIER.get();
+	}
+
+
+	static synchronized ForkJoinPool sharedPool() {
+		if (sharedPool == null) {
+			sharedPool = new ForkJoinPool();
+		}
+		return sharedPool;
+	}
+
+
+	/*
+	 * a validateAll that is still running on the pool will fail; a later
+	 * call creates a new pool
+	 */
+	static synchronized void shutdown() {
+		if (sharedPool != null) {
+			sharedPool.shutdown();
+			sharedPool = null;
+		}
+	}
+
+
+	/**
+	 * @param grp the group to check
+	 * @return the failed requirements; an empty list when the group is valid
+	 * @see AdminGroup#validate()
+	 */
+	public List<ValidationWarning> check(AdminGroup grp) {
+		return grp.check();
+	}
+
+
+	/**
+	 * @param code the group code to check
+	 * @return the failed requirements; an empty list when the group code is valid
+	 * @see GroupCode#validate()
+	 */
+	public List<ValidationWarning> check(GroupCode code) {
+		return code.check();
+	}
+
+
+	/**
+	 * Validates all groups, using the fork-join pool of this validator when
+	 * there are many of them. Groups without a loaded group code load it
+	 * first, together and in the calling thread (so in the transaction of
+	 * the caller, if any); the pool threads never query the database.
+	 *
+	 * @param grps the groups to validate
+	 * @return the failed requirements of the invalid groups; valid groups are
+	 * not in the map. The map is keyed by object identity (new groups are all
+	 * equal to each other).
+	 */
+	public Map<AdminGroup, List<ValidationWarning>> validateAll(Collection<AdminGroup> grps) {
+		List<AdminGroup> list = new ArrayList<>(grps);
+		AdminGroup.loadGroupCodesTogether(list);
+		for (AdminGroup grp : list) {
+			grp.getGroupCode();
+		}
+		if (list.size() <= SPLIT_THRESHOLD) {
+			return new ValidateTask(list).compute();
+		}
+		return (pool != null ? pool : sharedPool()).invoke(new ValidateTask(list));
+	}
+
+
+	static ValidationException toException(List<ValidationWarning> warnings) {
+		ValidationException ve = new ValidationException();
+		ve.getWarnings().addAll(warnings);
+		return ve;
+	}
+
+
+	private static class ValidateTask extends RecursiveTask<Map<AdminGroup, List<ValidationWarning>>> {
+		private static final long serialVersionUID = 1L;
+
+		private final List<AdminGroup> grps;
+
+		ValidateTask(List<AdminGroup> grps) {
+			this.grps = grps;
+		}
+
+		@Override protected Map<AdminGroup, List<ValidationWarning>> compute() {
+			if (grps.size() > SPLIT_THRESHOLD) {
+				int half = grps.size() / 2;
+				ValidateTask second = new ValidateTask(grps.subList(half, grps.size()));
+				second.fork();
+				Map<AdminGroup, List<ValidationWarning>> result = new ValidateTask(grps.subList(0, half)).compute();
+				result.putAll(second.join());
+				return result;
+			}
+			Map<AdminGroup, List<ValidationWarning>> result = new IdentityHashMap<>();
+			for (AdminGroup grp : grps) {
+				List<ValidationWarning> warnings = grp.check();
+				if (!warnings.isEmpty()) {
+					result.put(grp, warnings);
+				}
+			}
+			return result;
+		}
+	}
+}
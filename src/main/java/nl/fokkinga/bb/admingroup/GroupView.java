@@ -0,0 +1,140 @@
+/*
+ * Copyright 2015 Peter R. Fokkinga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.fokkinga.bb.admingroup;
+
+import blackboard.persist.Id;
+import nl.fokkinga.bb.Util;
+
+import static nl.fokkinga.bb.Util.notEmpty;
+
+
+/**
+ * An immutable, read-only summary of a group or group set. Unlike an
+ * {@link AdminGroup} a view can be shared between threads (like in a cache)
+ * without any locking, and it is a single small object instead of a group
+ * with a group code.
+ *
+ * @author <a href="mailto:peter [at] fokkinga.nl">Peter Fokkinga</a>
+ */
+public final class GroupView {
+	private static final int GROUP_SET = 1;
+	private static final int AVAILABLE = 2;
+
+	private final long pk1, crsPk1, setPk1, codePk1;
+	private final String title, batchUid;
+	private final int flags;
+
+
+	/*
+	 * the group code may be NULL when the group has none, the view then gets
+	 * the generated batch_uid
+	 */
+	GroupView(AdminGroup grp, GroupCode code) {
+		this(Util.toNumber(grp.getId()), Util.toNumber(grp.getCourseId()),
+				Id.isValidPkId(grp.getSetId()) ? Util.toNumber(grp.getSetId()) : 0,
+				grp.getTitle(), (code != null && Id.isValidPkId(code.getId())) ? Util.toNumber(code.getId()) : 0,
+				(code != null) ? code.getBatchUid() : null, grp.isGroupSet(), grp.getIsAvailable());
+	}
+
+
+	/*
+	 * straight from the columns of the groups and bb_groupcode tables; the
+	 * batch_uid may be NULL and codePk1 0 when the group has no group code
+	 */
+	GroupView(long pk1, long crsPk1, long setPk1, String title, long codePk1, String batchUid, boolean groupSet,
+			boolean available) {
+		this.pk1 = pk1;
+		this.crsPk1 = crsPk1;
+		this.setPk1 = setPk1;
+		this.codePk1 = codePk1;
+		this.title = title;
+		this.batchUid = notEmpty(batchUid) ? Util.makeSafe(batchUid) : GroupCode.generateBatchUid(pk1);
+		this.flags = (groupSet ? GROUP_SET : 0) | (available ? AVAILABLE : 0);
+	}
+
+
+	/**
+	 * @return the primary key of the group
+	 */
+	public long getPk1() { return pk1; }
+
+
+	/**
+	 * @return the primary key of the course of the group
+	 */
+	public long getCoursePk1() { return crsPk1; }
+
+
+	/**
+	 * @return the primary key of the group set the group belongs to, 0 when
+	 * the group is not part of a group set
+	 */
+	public long getSetPk1() { return setPk1; }
+
+
+	public String getTitle() { return title; }
+
+
+	// the primary key of the group code, 0 when the group has none
+	long getCodePk1() { return codePk1; }
+
+
+	/**
+	 * @return the batch_uid of the group, or the generated batch_uid when
+	 * the group has no group code
+	 * @see GroupCode#generateBatchUid(Id)
+	 */
+	public String getBatchUid() { return batchUid; }
+
+
+	public boolean isGroupSet() { return (flags & GROUP_SET) != 0; }
+
+
+	public boolean isAvailable() { return (flags & AVAILABLE) != 0; }
+
+
+	@Override public boolean equals(Object obj) {
+		return obj instanceof GroupView && pk1 == ((GroupView) obj).pk1;
+	}
+
+
+	@Override public int hashCode() {
+		return (int) (pk1 ^ (pk1 >>> 32));
+	}
+
+
+	/**
+	 * The {@code toString} method has been overriden for the sole purpose of
+	 * facilitating debugging. The returned format and/or contents are not stable
+	 * and cannot be relied upon.
+	 *
+	 * @return a summary of the state of the object
+	 */
+	@Override public String toString() {
+		StringBuilder sb = new StringBuilder(getClass().getSimpleName());
+		sb.append("{pk1=").append(pk1);
+		sb.append(" batch_uid='").append(batchUid).append("'");
+		if (isGroupSet()) {
+			sb.append(" groupset");
+		} else if (setPk1 > 0) {
+			sb.append(" set_pk1=").append(setPk1);
+		}
+		sb.append(" crs_pk1=").append(crsPk1);
+		sb.append(" title='").append(title);
+		return sb.append("'}").toString();
+	}
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2015 Peter R. Fokkinga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.fokkinga.bb.admingroup;
+
+
+/**
+ * Receives groups one at a time while they are being read from the database.
+ *
+ * @author <a href="mailto:peter [at] fokkinga.nl">Peter Fokkinga</a>
+ * @see AdminGroupManager#visitGroupsByCourseId(blackboard.persist.Id, GroupVisitor)
+ */
+public interface GroupVisitor {
+
+	/**
+	 * Called for each group. The database cursor is still open during this
+	 * call, so avoid lengthy processing or further queries; throwing a
+	 * runtime exception stops the visit.
+	 *
+	 * @param grp the group just read from the database
+	 */
+	void visit(AdminGroup grp);
+}
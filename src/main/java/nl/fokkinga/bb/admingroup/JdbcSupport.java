@@ -0,0 +1,305 @@
+/*
+ * Copyright 2015 Peter R. Fokkinga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.fokkinga.bb.admingroup;
+
+import blackboard.db.BbDatabase;
+import blackboard.db.ConnectionManager;
+import blackboard.db.ConnectionNotAvailableException;
+import blackboard.persist.DataType;
+import blackboard.persist.Id;
+import blackboard.persist.PersistenceException;
+import blackboard.persist.PersistenceRuntimeException;
+import blackboard.persist.dao.impl.DAOSupport;
+import blackboard.persist.impl.SelectQuery;
+import com.google.common.collect.Iterables;
+import nl.fokkinga.bb.Util;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+
+/**
+ * Plain JDBC plumbing for the statements that cannot be expressed with
+ * Blackboard's query classes, like batches and aggregates. Connections are
+ * obtained from Blackboard's connection manager, so the statements take part
+ * in the transaction (if any) of the calling thread.
+ * <p>
+ * The work is recorded in the {@link OperationMetrics} and its statements
+ * are counted by the {@link StatementBudget} under the description passed
+ * by the DAO, like "GroupCodeDAO.isUnique".</p>
+ *
+ * @author <a href="mailto:peter [at] fokkinga.nl">Peter Fokkinga</a>
+ */
+final class JdbcSupport {
+	/**
+	 * Maximum number of values in a single {@code IN (...)} list; Oracle does
+	 * not accept more than 1000.
+	 */
+	static final int MAX_IN_LIST = 1000;
+
+	private JdbcSupport() {}
+
+
+	interface Work<T> {
+		T execute(Connection con) throws SQLException, PersistenceException;
+	}
+
+
+	interface RowMapper<T> {
+		T map(ResultSet rst) throws SQLException, PersistenceException;
+	}
+
+
+	/**
+	 * Runs the given work with a connection from Blackboard's connection
+	 * manager.
+	 *
+	 * @param description used in the message of the exception when the work fails
+	 * @param work        the JDBC code to run
+	 * @return the outcome of the work
+	 * @throws PersistenceRuntimeException when the work fails
+	 */
+	static <T> T execute(String description, Work<T> work) {
+		long start = OperationMetrics.start();
+		T result = null;
+		boolean failed = true;
+		ConnectionManager cm = BbDatabase.getDefaultInstance().getConnectionManager();
+		Connection con = null;
+		try {
+			con = cm.getConnection();
+			result = work.execute(StatementBudget.counting(con, description));
+			failed = false;
+			return result;
+		} catch (ConnectionNotAvailableException | SQLException | PersistenceException e) {
+			throw new PersistenceRuntimeException(description + ": " + e.getMessage(), e);
+		} finally {
+			if (con != null) {
+				cm.releaseConnection(con);
+			}
+			OperationMetrics.record(description, start, OperationMetrics.rows(result), failed);
+		}
+	}
+
+
+	/**
+	 * Runs a query of Blackboard's persistence framework.
+	 *
+	 * @param description the name under which the query is recorded
+	 * @param support     the DAO support of the DAO running the query
+	 * @param query       the query
+	 * @return the objects loaded by the query
+	 */
+	static <R> List<R> loadList(String description, DAOSupport<?> support, SelectQuery query) {
+		StatementBudget.count(description);
+		long start = OperationMetrics.start();
+		List<R> result = null;
+		boolean failed = true;
+		try {
+			result = support.loadList(query);
+			failed = false;
+			return result;
+		} finally {
+			OperationMetrics.record(description, start, OperationMetrics.rows(result), failed);
+		}
+	}
+
+
+	/**
+	 * Runs a query with constant SQL. Unlike Blackboard's query classes
+	 * nothing is built or rendered per call, and as the SQL text is always
+	 * the same the statement cache of the driver or connection pool can
+	 * reuse the prepared statement.
+	 *
+	 * @param description used in the message of the exception when the query fails
+	 * @param sql         the query
+	 * @param mapper      creates an object for each row
+	 * @param params      the values for the placeholders, either {@code String}
+	 *                    or {@code Id}
+	 * @return the objects created by the mapper
+	 * @throws PersistenceRuntimeException when the query fails
+	 */
+	static <T> List<T> query(String description, final String sql, final RowMapper<T> mapper, final Object... params) {
+		return execute(description, new Work<List<T>>() {
+			public List<T> execute(Connection con) throws SQLException, PersistenceException {
+				try (PreparedStatement stmt = con.prepareStatement(sql)) {
+					setParams(stmt, params);
+					List<T> result = new ArrayList<>();
+					try (ResultSet rst = stmt.executeQuery()) {
+						while (rst.next()) {
+							result.add(mapper.map(rst));
+						}
+					}
+					return result;
+				}
+			}
+		});
+	}
+
+
+	/**
+	 * Runs an update or delete with constant SQL.
+	 *
+	 * @param description used in the message of the exception when the update fails
+	 * @param sql         the statement
+	 * @param params      the values for the placeholders, either {@code String}
+	 *                    or {@code Id}
+	 * @return the number of rows affected
+	 * @throws PersistenceRuntimeException when the update fails
+	 */
+	static int update(String description, final String sql, final Object... params) {
+		return execute(description, new Work<Integer>() {
+			public Integer execute(Connection con) throws SQLException {
+				try (PreparedStatement stmt = con.prepareStatement(sql)) {
+					setParams(stmt, params);
+					return stmt.executeUpdate();
+				}
+			}
+		});
+	}
+
+
+	/**
+	 * Counts the rows returned by a query, but stops reading after
+	 * {@code max} rows; the driver is told so as well, which makes the query
+	 * as cheap as an EXISTS when {@code max} is 1. Nothing is unmarshalled.
+	 *
+	 * @param description used in the message of the exception when the query fails
+	 * @param sql         the query; what it selects is irrelevant
+	 * @param max         the maximum number of rows to count; must be positive
+	 * @param params      the values for the placeholders, either {@code String}
+	 *                    or {@code Id}
+	 * @return the number of rows, at most {@code max}
+	 * @throws PersistenceRuntimeException when the query fails
+	 */
+	static int countRows(String description, final String sql, final int max, final Object... params) {
+		return execute(description, new Work<Integer>() {
+			public Integer execute(Connection con) throws SQLException {
+				try (PreparedStatement stmt = con.prepareStatement(sql)) {
+					stmt.setMaxRows(max);
+					setParams(stmt, params);
+					int count = 0;
+					try (ResultSet rst = stmt.executeQuery()) {
+						while (count < max && rst.next()) {
+							count++;
+						}
+					}
+					return count;
+				}
+			}
+		});
+	}
+
+
+	/**
+	 * Runs an update or delete for a (large) number of IDs, using chunks of
+	 * at most {@link #MAX_IN_LIST} IDs.
+	 *
+	 * @param description used in the message of the exception when the update fails
+	 * @param sql         the statement with "%s" where the placeholders of the
+	 *                    IN list go, like "DELETE FROM groups WHERE pk1 IN (%s)"
+	 * @param ids         the IDs for the IN list
+	 * @param params      values for placeholders before the IN list, either
+	 *                    {@code String} or {@code Id}
+	 * @return the total number of rows affected
+	 * @throws PersistenceRuntimeException when an update fails
+	 */
+	static int updateIn(String description, final String sql, Collection<Id> ids, final Object... params) {
+		if (ids.isEmpty()) {
+			return 0;
+		}
+		final Iterable<List<Id>> chunks = Iterables.partition(new LinkedHashSet<>(ids), MAX_IN_LIST);
+		return execute(description, new Work<Integer>() {
+			public Integer execute(Connection con) throws SQLException {
+				int count = 0;
+				for (List<Id> chunk : chunks) {
+					try (PreparedStatement stmt = con.prepareStatement(String.format(sql, placeholders(chunk.size())))) {
+						int idx = setParams(stmt, params);
+						for (Id id : chunk) {
+							setId(stmt, idx++, id);
+						}
+						count += stmt.executeUpdate();
+					}
+				}
+				return count;
+			}
+		});
+	}
+
+
+	/*
+	 * returns the index of the next placeholder
+	 */
+	private static int setParams(PreparedStatement stmt, Object... params) throws SQLException {
+		for (int i = 0; i < params.length; i++) {
+			if (params[i] instanceof Id) {
+				setId(stmt, i + 1, (Id) params[i]);
+			} else {
+				stmt.setString(i + 1, (String) params[i]);
+			}
+		}
+		return params.length + 1;
+	}
+
+
+	/**
+	 * @param count the number of placeholders; must be at least 1
+	 * @return "?,?,...,?" with {@code count} question marks
+	 */
+	static String placeholders(int count) {
+		StringBuilder sb = new StringBuilder(count * 2);
+		sb.append('?');
+		for (int i = 1; i < count; i++) {
+			sb.append(",?");
+		}
+		return sb.toString();
+	}
+
+
+	static void setId(PreparedStatement stmt, int idx, Id id) throws SQLException {
+		stmt.setLong(idx, Util.toNumber(id));
+	}
+
+
+	static Id toId(DataType type, long pk1) throws PersistenceException {
+		return Id.generateId(type, pk1);
+	}
+
+
+	/**
+	 * Read an ID column; a NULL column results in {@link Id#UNSET_ID}, just
+	 * like the Blackboard mapping does.
+	 */
+	static Id getId(ResultSet rst, int idx, DataType type) throws SQLException, PersistenceException {
+		long pk1 = rst.getLong(idx);
+		return rst.wasNull() ? Id.UNSET_ID : toId(type, pk1);
+	}
+
+
+	/**
+	 * Escape the LIKE wildcards in the given value; the query must declare
+	 * {@code ESCAPE '\'} for this to work.
+	 */
+	static String escapeLike(String value) {
+		return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+	}
+}
@@ -0,0 +1,369 @@
+/*
+ * Copyright 2015 Peter R. Fokkinga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.fokkinga.bb.admingroup;
+
+import java.beans.ConstructorProperties;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.management.JMException;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+
+/**
+ * Counts the calls of the group managers and the queries of the DAOs, with
+ * their errors, the number of rows and a latency histogram per operation.
+ * Recording is off by default; turn it on with {@link #setEnabled}, through
+ * JMX or with the system property {@value #ENABLED_PROPERTY}. When off each
+ * operation costs a single volatile read.
+ * <p>
+ * Operations are named after the class and method, like
+ * {@code StrictManagerImpl.loadById} or {@code GroupCodeDAO.isUnique}; the
+ * calls of the strict manager that relies on the unique index are named
+ * like {@code StrictManagerImpl(INDEX).loadById}. The
+ * latency histogram has a bucket per power of two microseconds, so the
+ * percentiles are upper bounds that are at most a factor two off.</p>
+ *
+ * @author <a href="mailto:peter [at] fokkinga.nl">Peter Fokkinga</a>
+ */
+public final class OperationMetrics {
+	/**
+	 * System property that turns recording on at startup when "true".
+	 */
+	public static final String ENABLED_PROPERTY = "nl.fokkinga.bb.admingroup.metrics";
+
+	/**
+	 * Name under which {@link AdminGroupManagerFactory} registers the MBean,
+	 * followed by an {@code instance} key that is unique per deployment
+	 * (class loader), see {@link #getObjectName()}.
+	 */
+	public static final String OBJECT_NAME = "nl.fokkinga.bb.admingroup:type=OperationMetrics";
+
+	// bucket i holds latencies below 2^i microseconds, the last one everything else
+	private static final int BUCKETS = 32;
+
+	private static volatile boolean enabled = Boolean.getBoolean(ENABLED_PROPERTY);
+	private static final ConcurrentMap<String, Stats> STATS = new ConcurrentHashMap<>();
+	// NULL while the MBean is not registered
+	private static ObjectName registered = null;
+
+	private OperationMetrics() {}
+
+
+	public static boolean isEnabled() { return enabled; }
+
+
+	public static void setEnabled(boolean value) { enabled = value; }
+
+
+	/**
+	 * @return the metrics per operation, sorted by name; operations that have
+	 * not been called since the last reset are not included
+	 */
+	public static List<Snapshot> snapshot() {
+		List<Snapshot> result = new ArrayList<>(STATS.size());
+		for (Map.Entry<String, Stats> entry : new TreeMap<>(STATS).entrySet()) {
+			result.add(entry.getValue().snapshot(entry.getKey()));
+		}
+		return result;
+	}
+
+
+	/**
+	 * Forgets everything recorded so far.
+	 */
+	public static void reset() {
+		STATS.clear();
+	}
+
+
+	/**
+	 * Call at the start of an operation and pass the result to
+	 * {@link #record}.
+	 *
+	 * @return the start time, or 0 when recording is off
+	 */
+	static long start() {
+		return enabled ? System.nanoTime() : 0;
+	}
+
+
+	/**
+	 * @param operation the name of the operation
+	 * @param start     the result of {@link #start()}; nothing is recorded
+	 *                  when it is 0
+	 * @param rows      the number of rows read or written
+	 * @param failed    whether the operation threw an exception
+	 */
+	static void record(String operation, long start, int rows, boolean failed) {
+		if (start == 0) {
+			return;
+		}
+		long nanos = System.nanoTime() - start;
+		Stats stats = STATS.get(operation);
+		if (stats == null) {
+			Stats created = new Stats();
+			stats = STATS.putIfAbsent(operation, created);
+			if (stats == null) {
+				stats = created;
+			}
+		}
+		stats.add(nanos, rows, failed);
+	}
+
+
+	/**
+	 * @return the number of rows represented by the result of an operation:
+	 * the size of a collection or map, the value of a number, or 1 for any
+	 * other object
+	 */
+	static int rows(Object result) {
+		if (result == null) {
+			return 0;
+		} else if (result instanceof Collection) {
+			return ((Collection) result).size();
+		} else if (result instanceof Map) {
+			return ((Map) result).size();
+		} else if (result instanceof Integer) {
+			return (Integer) result;
+		} else if (result instanceof BulkPersistResult) {
+			return ((BulkPersistResult) result).getPersisted().size();
+		} else if (result instanceof GroupPage) {
+			return ((GroupPage) result).getGroups().size();
+		}
+		return 1;
+	}
+
+
+	/**
+	 * @return the name of the MBean of this deployment: {@link #OBJECT_NAME}
+	 * with the identity of the class loader of this library as instance, so
+	 * a redeployed building block (or another building block with a copy of
+	 * this library) gets an MBean of its own
+	 */
+	public static ObjectName getObjectName() {
+		try {
+			return new ObjectName(OBJECT_NAME + ",instance="
+					+ Integer.toHexString(System.identityHashCode(OperationMetrics.class.getClassLoader())));
+		} catch (MalformedObjectNameException e) {
+			throw new IllegalStateException("getObjectName: " + e.getMessage(), e);
+		}
+	}
+
+
+	/**
+	 * Registers the MBean on the platform MBean server. Nothing happens when
+	 * registering is not allowed or the MBean has been registered already.
+	 */
+	static synchronized void registerMBean() {
+		if (registered != null) {
+			return;
+		}
+		try {
+			StandardMBean mbean = new StandardMBean(new MBean(), OperationMetricsMXBean.class, true);
+			ObjectName name = getObjectName();
+			ManagementFactory.getPlatformMBeanServer().registerMBean(mbean, name);
+			registered = name;
+		} catch (JMException | SecurityException e) {
+			/* metrics are still available through snapshot() */
+		}
+	}
+
+
+	/**
+	 * Removes the MBean from the platform MBean server, so that it no longer
+	 * refers to the classes of an undeployed building block.
+	 */
+	static synchronized void unregisterMBean() {
+		if (registered == null) {
+			return;
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(registered);
+		} catch (JMException | SecurityException e) {
+			/* gone already, or never allowed */
+		}
+		registered = null;
+	}
+
+
+	/**
+	 * Records each call of an interface, like the transactional proxy of a
+	 * group manager; the operations are named after the prefix and the
+	 * method name.
+	 */
+	static class Recorder implements InvocationHandler {
+		private final String prefix;
+		private final Object target;
+
+		Recorder(String prefix, Object target) {
+			this.prefix = prefix + ".";
+			this.target = target;
+		}
+
+		@Override public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			long start = start();
+			Object result = null;
+			boolean failed = true;
+			try {
+				result = method.invoke(target, args);
+				failed = false;
+				return result;
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			} finally {
+				if (start != 0) {
+					record(prefix + method.getName(), start, rows(result), failed);
+				}
+			}
+		}
+	}
+
+
+	private static class Stats {
+		final AtomicLong count = new AtomicLong();
+		final AtomicLong errors = new AtomicLong();
+		final AtomicLong rows = new AtomicLong();
+		final AtomicLong totalNanos = new AtomicLong();
+		final AtomicLong maxNanos = new AtomicLong();
+		final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+		void add(long nanos, int rowCount, boolean failed) {
+			count.incrementAndGet();
+			if (failed) {
+				errors.incrementAndGet();
+			}
+			rows.addAndGet(rowCount);
+			totalNanos.addAndGet(nanos);
+			for (long max = maxNanos.get(); nanos > max && !maxNanos.compareAndSet(max, nanos); max = maxNanos.get()) {
+				/* retry */
+			}
+			long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+			int bucket = 64 - Long.numberOfLeadingZeros(micros);
+			buckets.incrementAndGet(Math.min(bucket, BUCKETS - 1));
+		}
+
+		Snapshot snapshot(String name) {
+			long[] counts = new long[BUCKETS];
+			long total = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				counts[i] = buckets.get(i);
+				total += counts[i];
+			}
+			long maxMicros = TimeUnit.NANOSECONDS.toMicros(maxNanos.get());
+			return new Snapshot(name, count.get(), errors.get(), rows.get(),
+					TimeUnit.NANOSECONDS.toMicros(totalNanos.get()),
+					percentile(counts, total, 0.50, maxMicros), percentile(counts, total, 0.99, maxMicros), maxMicros);
+		}
+
+		private static long percentile(long[] counts, long total, double fraction, long maxMicros) {
+			long wanted = (long) Math.ceil(total * fraction);
+			long seen = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				seen += counts[i];
+				if (seen >= wanted && seen > 0) {
+					// the upper bound of the bucket, but never more than the maximum
+					return Math.min((1L << i) - 1, maxMicros);
+				}
+			}
+			return maxMicros;
+		}
+	}
+
+
+	/**
+	 * The metrics of one operation at the time of {@link #snapshot()}.
+	 * Latencies are in microseconds.
+	 */
+	public static final class Snapshot {
+		private final String name;
+		private final long count, errors, rows, totalMicros, p50Micros, p99Micros, maxMicros;
+
+		@ConstructorProperties({"name", "count", "errors", "rows", "totalMicros", "p50Micros", "p99Micros", "maxMicros"})
+		public Snapshot(String name, long count, long errors, long rows, long totalMicros,
+		                long p50Micros, long p99Micros, long maxMicros) {
+			this.name = name;
+			this.count = count;
+			this.errors = errors;
+			this.rows = rows;
+			this.totalMicros = totalMicros;
+			this.p50Micros = p50Micros;
+			this.p99Micros = p99Micros;
+			this.maxMicros = maxMicros;
+		}
+
+		public String getName() { return name; }
+
+		public long getCount() { return count; }
+
+		/**
+		 * @return the number of calls that threw an exception
+		 */
+		public long getErrors() { return errors; }
+
+		/**
+		 * @return the total number of rows read or written by all calls
+		 */
+		public long getRows() { return rows; }
+
+		public long getTotalMicros() { return totalMicros; }
+
+		public long getP50Micros() { return p50Micros; }
+
+		public long getP99Micros() { return p99Micros; }
+
+		public long getMaxMicros() { return maxMicros; }
+
+		@Override public String toString() {
+			return name + "{count=" + count + " errors=" + errors + " rows=" + rows + " p50=" + p50Micros
+					+ "us p99=" + p99Micros + "us max=" + maxMicros + "us}";
+		}
+	}
+
+
+	/**
+	 * Management interface of the metrics.
+	 */
+	public interface OperationMetricsMXBean {
+		boolean isEnabled();
+
+		void setEnabled(boolean value);
+
+		List<Snapshot> getOperations();
+
+		void reset();
+	}
+
+
+	static class MBean implements OperationMetricsMXBean {
+		@Override public boolean isEnabled() { return OperationMetrics.isEnabled(); }
+
+		@Override public void setEnabled(boolean value) { OperationMetrics.setEnabled(value); }
+
+		@Override public List<Snapshot> getOperations() { return snapshot(); }
+
+		@Override public void reset() { OperationMetrics.reset(); }
+	}
+}
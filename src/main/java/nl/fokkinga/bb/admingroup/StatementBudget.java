@@ -0,0 +1,271 @@
+/*
+ * Copyright 2015 Peter R. Fokkinga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.fokkinga.bb.admingroup;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/**
+ * Counts the statements the DAOs send to the database while the budget is
+ * open, per DAO method (like "GroupCodeDAO.loadByGroupId"). Plain JDBC
+ * statements are counted each time they are executed, so a DAO method that
+ * splits a long list of IDs into chunks counts once per chunk, and a JDBC
+ * batch counts once as it is sent at once. A query or persist of
+ * Blackboard's persistence framework counts once as well; the calls of the
+ * Blackboard persisters used by the managers are counted as
+ * "GroupDbPersister.persist" and "GroupDbPersister.deleteById", although
+ * Blackboard may send more than one statement for them.
+ * <p>
+ * A budget only counts the statements of the thread that opened it, so
+ * calls of an {@link AsyncAdminGroupManager} are not included. Budgets can
+ * be nested: a statement counts for all open budgets of the thread. When no
+ * budget is open counting costs a single volatile read per statement.</p>
+ *
+ * <pre>
+ * try (StatementBudget budget = StatementBudget.open(2, StatementBudget.Mode.FAIL)) {
+ *     mngr.deleteGroupById(grpId);
+ * }
+ * </pre>
+ *
+ * @author <a href="mailto:peter [at] fokkinga.nl">Peter Fokkinga</a>
+ */
+public final class StatementBudget implements AutoCloseable {
+	private static final Logger LOG = Logger.getLogger(StatementBudget.class.getName());
+	private static final ThreadLocal<StatementBudget> CURRENT = new ThreadLocal<>();
+	// number of budgets open in all threads, so counting is skipped when there are none
+	private static final AtomicInteger OPEN = new AtomicInteger();
+
+	/**
+	 * What happens with a statement that exceeds the budget.
+	 */
+	public enum Mode {
+		/** throw an {@link ExceededException} before the statement is sent */
+		FAIL,
+		/** log a warning with the call stack of the statement */
+		LOG
+	}
+
+	private final StatementBudget parent;
+	private final int max;
+	private final Mode mode;
+	private final Map<String, Integer> counts = new LinkedHashMap<>();
+	private int count = 0;
+	private boolean closed = false;
+
+
+	private StatementBudget(StatementBudget parent, int max, Mode mode) {
+		this.parent = parent;
+		this.max = max;
+		this.mode = mode;
+	}
+
+
+	/**
+	 * Opens a budget without a maximum, which only counts.
+	 *
+	 * @return the budget; close it on the same thread
+	 */
+	public static StatementBudget open() {
+		return open(Integer.MAX_VALUE, Mode.LOG);
+	}
+
+
+	/**
+	 * @param max  the maximum number of statements
+	 * @param mode what happens with statements beyond the maximum
+	 * @return the budget; close it on the same thread
+	 * @throws IllegalArgumentException when {@code max} is negative or
+	 *                                  {@code mode} is NULL
+	 */
+	public static StatementBudget open(int max, Mode mode) {
+		if (max < 0) {
+			throw new IllegalArgumentException("open: parameter 'max' should not be negative");
+		}
+		if (mode == null) {
+			throw new IllegalArgumentException("open: parameter 'mode' should not be NULL");
+		}
+		StatementBudget budget = new StatementBudget(CURRENT.get(), max, mode);
+		CURRENT.set(budget);
+		OPEN.incrementAndGet();
+		return budget;
+	}
+
+
+	/**
+	 * Called by the DAOs right before a statement is sent to the database.
+	 *
+	 * @param operation the DAO method sending the statement
+	 * @throws ExceededException when the statement exceeds a budget in
+	 *                           {@link Mode#FAIL}
+	 */
+	static void count(String operation) {
+		if (OPEN.get() == 0) {
+			return;
+		}
+		StatementBudget innermost = CURRENT.get();
+		for (StatementBudget budget = innermost; budget != null; budget = budget.parent) {
+			budget.add(operation);
+		}
+		// only check once all budgets have counted the statement
+		for (StatementBudget budget = innermost; budget != null; budget = budget.parent) {
+			budget.check(operation);
+		}
+	}
+
+
+	/**
+	 * Wraps the connection of a DAO method so that every statement executed
+	 * through it is {@link #count counted}.
+	 *
+	 * @param con       the connection
+	 * @param operation the DAO method using the connection
+	 * @return the wrapped connection, or the connection itself when no
+	 * budget is open
+	 */
+	static Connection counting(Connection con, String operation) {
+		if (OPEN.get() == 0) {
+			return con;
+		}
+		return (Connection) Proxy.newProxyInstance(StatementBudget.class.getClassLoader(),
+				new Class<?>[] { Connection.class }, new Counter(con, operation));
+	}
+
+
+	private void add(String operation) {
+		count++;
+		Integer n = counts.get(operation);
+		counts.put(operation, n == null ? 1 : n + 1);
+	}
+
+
+	private void check(String operation) {
+		if (count > max) {
+			String msg = "statement budget of " + max + " exceeded by " + operation + ", statements so far: " + counts;
+			if (mode == Mode.FAIL) {
+				throw new ExceededException(msg);
+			}
+			LOG.log(Level.WARNING, msg, new Throwable("call stack of " + operation));
+		}
+	}
+
+
+	/**
+	 * @return the number of statements so far
+	 */
+	public int getCount() { return count; }
+
+
+	/**
+	 * @param operation a DAO method, like "AdminGroupDAO.loadByIds"
+	 * @return the number of statements of the DAO method so far
+	 */
+	public int getCount(String operation) {
+		Integer n = counts.get(operation);
+		return n == null ? 0 : n;
+	}
+
+
+	/**
+	 * @return the number of statements per DAO method, in order of the first
+	 * statement of each method
+	 */
+	public Map<String, Integer> getCounts() {
+		return Collections.unmodifiableMap(new LinkedHashMap<>(counts));
+	}
+
+
+	/**
+	 * Stops counting; budgets opened after this one on the same thread
+	 * should be closed first.
+	 *
+	 * @throws IllegalStateException when called from another thread or
+	 *                               before a nested budget has been closed
+	 */
+	@Override public void close() {
+		if (closed) {
+			return;
+		}
+		if (CURRENT.get() != this) {
+			throw new IllegalStateException("close: budget is not the innermost open budget of this thread");
+		}
+		closed = true;
+		OPEN.decrementAndGet();
+		if (parent != null) {
+			CURRENT.set(parent);
+		} else {
+			CURRENT.remove();
+		}
+	}
+
+
+	@Override public String toString() {
+		return getClass().getSimpleName() + "{max=" + (max == Integer.MAX_VALUE ? "none" : max) + " count=" + count
+				+ " " + counts + "}";
+	}
+
+
+	/*
+	 * counts the execute calls of the statements created by a connection
+	 */
+	private static class Counter implements InvocationHandler {
+		private final Object target;
+		private final String operation;
+
+		Counter(Object target, String operation) {
+			this.target = target;
+			this.operation = operation;
+		}
+
+		@Override public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			if (target instanceof Statement && method.getName().startsWith("execute")) {
+				count(operation);
+			}
+			Object result;
+			try {
+				result = method.invoke(target, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+			Class<?> type = method.getReturnType();
+			if (result != null && type.isInterface() && Statement.class.isAssignableFrom(type)) {
+				return Proxy.newProxyInstance(StatementBudget.class.getClassLoader(), new Class<?>[] { type },
+						new Counter(result, operation));
+			}
+			return result;
+		}
+	}
+
+
+	/**
+	 * Thrown when a statement exceeds a budget in {@link Mode#FAIL}.
+	 */
+	public static class ExceededException extends IllegalStateException {
+		private static final long serialVersionUID = 1L;
+
+		public ExceededException(String msg) {
+			super(msg);
+		}
+	}
+}
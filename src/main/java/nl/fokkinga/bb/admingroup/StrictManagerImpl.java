@@ -1,17 +1,61 @@
 package nl.fokkinga.bb.admingroup;
 
 import blackboard.data.ValidationException;
+import blackboard.data.ValidationWarning;
+import blackboard.db.Transaction;
+import blackboard.db.TransactionInterfaceFactory;
 import blackboard.persist.*;
 import blackboard.persist.course.GroupDbPersister;
-import blackboard.platform.course.CourseGroupManagerFactory;
+import com.google.common.collect.Lists;
+import nl.fokkinga.bb.Util;
 
-import java.util.List;
+import java.util.*;
 
 
 /**
+ * By default uniqueness is checked with a query after the group code has
+ * been written. When the unique index {@link GroupCodeDAO#BATCH_UID_INDEX}
+ * has been created, use {@link UniquenessCheck#INDEX} to leave the check to
+ * the database; this saves a query per write and also catches duplicates
+ * written by concurrent transactions.
+ * <p>
+ * Every call loads its own groups in the transaction of the caller; use
+ * {@link CachingManagerImpl} to share lookups between callers.</p>
+ *
  * @author <a href="mailto:peter [at] fokkinga.nl">Peter Fokkinga</a>
  */
 public class StrictManagerImpl implements AdminGroupManager {
+	private static final ChunkWriter CHUNK_WRITER = (ChunkWriter) TransactionInterfaceFactory.getInstance(
+			ChunkWriter.class, new StrictChunkWriter());
+
+	/**
+	 * How the uniqueness of the batch_uid is verified when persisting.
+	 */
+	public enum UniquenessCheck {
+		/** query for other groups with the batch_uid after writing */
+		QUERY,
+		/**
+		 * rely on the unique index {@link GroupCodeDAO#BATCH_UID_INDEX}, which
+		 * must exist in the database
+		 */
+		INDEX
+	}
+
+	private final UniquenessCheck uniquenessCheck;
+
+
+	public StrictManagerImpl() {
+		this(UniquenessCheck.QUERY);
+	}
+
+
+	/**
+	 * @param uniquenessCheck how to verify the uniqueness of the batch_uid
+	 */
+	public StrictManagerImpl(UniquenessCheck uniquenessCheck) {
+		this.uniquenessCheck = uniquenessCheck;
+	}
+
 
 	@Override public AdminGroup loadById(Id grpId) {
 		try {
@@ -21,6 +65,11 @@ public class StrictManagerImpl implements AdminGroupManager {
 	}
 
 
+	@Override public List<AdminGroup> loadByIds(Collection<Id> grpIds) {
+		return AdminGroupDAO.get().loadByIds(grpIds);
+	}
+
+
 	@Override public AdminGroup loadSingleByBatchUid(String uid) {
 		List<AdminGroup> groups = loadByBatchUid(uid);
 		return groups.isEmpty() ? null : groups.get(0);
@@ -28,7 +77,8 @@ public class StrictManagerImpl implements AdminGroupManager {
 
 
 	@Override public List<AdminGroup> loadByBatchUid(String uid) {
-		List<AdminGroup> result = AdminGroupDAO.get().loadByBatchUid(uid);
+		// two rows are enough to tell the batch_uid is not unique
+		List<AdminGroup> result = AdminGroupDAO.get().loadByBatchUid(uid, 2);
 		if (result.size() > 1) {
 			throw new IllegalStateException("multiple groups have batch_uid " + uid);
 		}
@@ -36,13 +86,84 @@ public class StrictManagerImpl implements AdminGroupManager {
 	}
 
 
+	@Override public Map<String, AdminGroup> loadByBatchUids(Collection<String> uids) {
+		Map<String, List<AdminGroup>> found = AdminGroupDAO.get().loadByBatchUids(uids);
+		Map<String, AdminGroup> result = new HashMap<>(found.size() * 2);
+		for (Map.Entry<String, List<AdminGroup>> entry : found.entrySet()) {
+			if (entry.getValue().size() > 1) {
+				throw new IllegalStateException("multiple groups have batch_uid " + entry.getKey());
+			}
+			result.put(entry.getKey(), entry.getValue().get(0));
+		}
+		return result;
+	}
+
+
 	@Override public List<AdminGroup> loadGroupsByCourseId(Id crsId) {
-		return AdminGroupDAO.get().loadByCourseId(crsId, AdminGroupDAO.Selector.GROUPS);
+		return loadByCourseId(crsId, AdminGroupDAO.Selector.GROUPS);
+	}
+
+
+	@Override public void visitGroupsByCourseId(Id crsId, GroupVisitor visitor) {
+		visitGroupsByCourseId(crsId, DEFAULT_FETCH_SIZE, visitor);
+	}
+
+
+	@Override public void visitGroupsByCourseId(Id crsId, int fetchSize, GroupVisitor visitor) {
+		AdminGroupDAO.get().visitByCourseId(crsId, AdminGroupDAO.Selector.GROUPS, fetchSize, visitor);
 	}
 
 
 	@Override public List<AdminGroup> loadGroupSetsByCourseId(Id crsId) {
-		return AdminGroupDAO.get().loadByCourseId(crsId, AdminGroupDAO.Selector.GROUP_SETS);
+		return loadByCourseId(crsId, AdminGroupDAO.Selector.GROUP_SETS);
+	}
+
+
+	@Override public List<AdminGroup> loadAllByCourseId(Id crsId) {
+		return loadByCourseId(crsId, AdminGroupDAO.Selector.BOTH);
+	}
+
+
+	@Override public Map<Id, List<AdminGroup>> loadGroupsByCourseIds(Collection<Id> crsIds) {
+		return AdminGroupDAO.get().loadByCourseIds(crsIds, AdminGroupDAO.Selector.GROUPS);
+	}
+
+
+	@Override public Map<Id, List<AdminGroup>> loadGroupSetsByCourseIds(Collection<Id> crsIds) {
+		return AdminGroupDAO.get().loadByCourseIds(crsIds, AdminGroupDAO.Selector.GROUP_SETS);
+	}
+
+
+	@Override public List<GroupView> loadViewsByCourseId(Id crsId) {
+		return AdminGroupDAO.get().loadViewsByCourseId(crsId, AdminGroupDAO.Selector.BOTH);
+	}
+
+
+	private List<AdminGroup> loadByCourseId(Id crsId, AdminGroupDAO.Selector filter) {
+		return AdminGroupDAO.get().loadByCourseId(crsId, filter);
+	}
+
+
+	@Override public GroupPage loadGroupsByCourseId(Id crsId, GroupPage.Order order, int pageSize, String pageToken) {
+		return loadPageByCourseId(crsId, AdminGroupDAO.Selector.GROUPS, order, pageSize, pageToken);
+	}
+
+
+	@Override public GroupPage loadGroupSetsByCourseId(Id crsId, GroupPage.Order order, int pageSize, String pageToken) {
+		return loadPageByCourseId(crsId, AdminGroupDAO.Selector.GROUP_SETS, order, pageSize, pageToken);
+	}
+
+
+	private GroupPage loadPageByCourseId(Id crsId, AdminGroupDAO.Selector filter, GroupPage.Order order,
+	                                     int pageSize, String pageToken) {
+		if (order == null) {
+			throw new IllegalArgumentException("loadPageByCourseId: parameter 'order' should not be NULL");
+		}
+		if (pageSize <= 0) {
+			throw new IllegalArgumentException("loadPageByCourseId: parameter 'pageSize' should be positive");
+		}
+		GroupPage.Key after = (pageToken != null) ? new GroupPage.Key(order, Util.toNumber(crsId), pageToken) : null;
+		return AdminGroupDAO.get().loadPageByCourseId(crsId, filter, order, after, pageSize);
 	}
 
 
@@ -51,26 +172,53 @@ public class StrictManagerImpl implements AdminGroupManager {
 	}
 
 
+	@Override public List<Id> addGroupsToGroupSet(Collection<Id> grpIds, Id grpSetId) {
+		return AdminGroupDAO.get().makeGroupsMemberOfGroupSet(grpIds, grpSetId);
+	}
+
+
 	@Override public void persist(AdminGroup grp) throws ValidationException, PersistenceException {
 		grp.validate();
+		write(grp, uniquenessCheck);
+	}
+
 
+	/*
+	 * must be called in a transaction: a duplicate batch_uid is reported with
+	 * an exception, which should roll back the write of the group as well.
+	 * Only what changed since the group was loaded is written, and the
+	 * batch_uid is only checked when the group code is written.
+	 */
+	private static void write(AdminGroup grp, UniquenessCheck check) throws PersistenceException, ValidationException {
 		/*
 		 * persist group first, otherwise when the group is new the group code
 		 * returned by gtGroupCode will not have a proper group ID
 		 */
-		GroupDbPersister.Default.getInstance().persist(grp);
-
-		GroupCodeDAO dao = GroupCodeDAO.get();
-		dao.persist(grp.getGroupCode());
-		if (!dao.isUnique(grp.getBatchUid(), grp.getId())) {
+		if (grp.isGroupDirty()) {
+			StatementBudget.count("GroupDbPersister.persist");
+			GroupDbPersister.Default.getInstance().persist(grp.groupToWrite());
+		}
 
-			/*
-			 * this will cause a complete rollback, including the persist of the
-			 * group, because in the interface this method is annotated with
-			 * @Transaction
-			 */
-			throw new DuplicateBatchUidException(grp.getGroupCode().toString());
+		if (grp.isGroupCodeDirty()) {
+			GroupCodeDAO dao = GroupCodeDAO.get();
+			if (check == UniquenessCheck.INDEX) {
+				try {
+					dao.persist(grp.getGroupCode());
+				} catch (RuntimeException e) {
+					if (GroupCodeDAO.isBatchUidViolation(e)) {
+						throw new DuplicateBatchUidException(grp.getGroupCode().toString());
+					}
+					throw e;
+				}
+			} else {
+				dao.persist(grp.getGroupCode());
+				if (!dao.isUnique(grp.getBatchUid(), grp.getId())) {
+					// the caller's transaction rolls back the persist of the group too
+					throw new DuplicateBatchUidException(grp.getGroupCode().toString());
+				}
+			}
 		}
+		grp.markWritten();
 	}
 
 
@@ -78,9 +226,10 @@ public class StrictManagerImpl implements AdminGroupManager {
 		AdminGroup grp = loadById(grpId);
 		if (grp != null) {
 			if (grp.isGroupSet()) {
-				CourseGroupManagerFactory.getInstance().deleteGroupSet(grp.getId());
+				deleteGroupsByIds(Collections.singleton(grpId));
 			} else {
 				try {
+					StatementBudget.count("GroupDbPersister.deleteById");
 					GroupDbPersister.Default.getInstance().deleteById(grpId);
 				} catch (PersistenceException e) {
 					throw new PersistenceRuntimeException(grp + " delete caused: " + e.getMessage(), e);
@@ -88,4 +237,172 @@ public class StrictManagerImpl implements AdminGroupManager {
 			}
 		}
 	}
+
+
+	/*
+	 * the group codes go with one statement per chunk of IDs; the groups
+	 * themselves are deleted by Blackboard, which also removes what it keeps
+	 * for a group (enrolments, tools, forums, file areas). The groups in the
+	 * group sets go first, so that a set is empty when it is deleted.
+	 */
+	@Override public void deleteGroupsByIds(Collection<Id> grpIds) {
+		GroupCodeDAO codeDao = GroupCodeDAO.get();
+		codeDao.deleteByGroupSetIds(grpIds);
+		codeDao.deleteByGroupIds(grpIds);
+		Set<Id> doomed = new LinkedHashSet<>(AdminGroupDAO.get().loadIdsByGroupSetIds(grpIds));
+		doomed.addAll(grpIds);
+		deleteGroups(doomed);
+	}
+
+
+	/*
+	 * IDs of groups that do not exist (anymore) are skipped
+	 */
+	private static void deleteGroups(Collection<Id> grpIds) {
+		for (Id grpId : grpIds) {
+			try {
+				StatementBudget.count("GroupDbPersister.deleteById");
+				GroupDbPersister.Default.getInstance().deleteById(grpId);
+			} catch (KeyNotFoundException e) {
+				/* already gone */
+			} catch (PersistenceException e) {
+				throw new PersistenceRuntimeException("deleteById(" + grpId + ") caused: " + e.getMessage(), e);
+			}
+		}
+	}
+
+
+	@Override public BulkPersistResult persistAll(Collection<AdminGroup> grps) {
+		return persistAll(grps, DEFAULT_CHUNK_SIZE);
+	}
+
+
+	@Override public BulkPersistResult persistAll(Collection<AdminGroup> grps, int chunkSize) {
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException("persistAll: parameter 'chunkSize' should be positive");
+		}
+		BulkPersistResult result = new BulkPersistResult();
+		List<AdminGroup> valid = new ArrayList<>(grps.size());
+		Set<String> uids = new HashSet<>(grps.size() * 2);
+		Map<AdminGroup, List<ValidationWarning>> invalid = GroupValidator.get().validateAll(grps);
+		for (AdminGroup grp : grps) {
+			if (invalid.containsKey(grp)) {
+				result.addFailure(grp, GroupValidator.toException(invalid.get(grp)));
+			} else if (uids.add(grp.getBatchUid())) {
+				valid.add(grp);
+			} else {
+				result.addFailure(grp, new DuplicateBatchUidException(grp.getGroupCode().toString()));
+			}
+		}
+
+		for (List<AdminGroup> chunk : Lists.partition(valid, chunkSize)) {
+			Set<Identifiable> unsaved = Collections.newSetFromMap(new IdentityHashMap<Identifiable, Boolean>());
+			for (AdminGroup grp : chunk) {
+				if (grp.isNew()) {
+					unsaved.add(grp);
+				}
+				if (!Id.isValidPkId(grp.getGroupCode().getId())) {
+					unsaved.add(grp.getGroupCode());
+				}
+			}
+			try {
+				CHUNK_WRITER.persist(chunk, uniquenessCheck);
+				result.addPersisted(chunk);
+			} catch (PersistenceException | ValidationException | RuntimeException e) {
+				for (AdminGroup grp : chunk) {
+					resetIds(grp, unsaved);
+					try {
+						CHUNK_WRITER.persist(grp, uniquenessCheck);
+						result.addPersisted(grp);
+					} catch (PersistenceException | ValidationException | RuntimeException ex) {
+						resetIds(grp, unsaved);
+						result.addFailure(grp, ex);
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+
+	/*
+	 * after a rollback objects that were new still have the ID they got
+	 * during the failed attempt
+	 */
+	private static void resetIds(AdminGroup grp, Set<Identifiable> unsaved) {
+		if (unsaved.contains(grp)) {
+			grp.setId(Id.UNSET_ID);
+		}
+		if (unsaved.contains(grp.getGroupCode())) {
+			grp.getGroupCode().setId(Id.UNSET_ID);
+		}
+	}
+
+
+	interface ChunkWriter {
+		@Transaction
+		void persist(List<AdminGroup> chunk, UniquenessCheck check) throws PersistenceException, ValidationException;
+
+		@Transaction
+		void persist(AdminGroup grp, UniquenessCheck check) throws PersistenceException, ValidationException;
+	}
+
+
+	/**
+	 * Writes a chunk of (validated) groups: the changed groups one at a time
+	 * as the Blackboard API has no bulk persister for groups, then the changed
+	 * group codes (updates in a JDBC batch) followed by a single uniqueness
+	 * check for those group codes. Unchanged groups and group codes are skipped.
+	 * The single group variant is used to find out which groups of a rejected
+	 * chunk are the culprits.
+	 */
+	static class StrictChunkWriter implements ChunkWriter {
+		@Override public void persist(List<AdminGroup> chunk, UniquenessCheck check) throws PersistenceException, ValidationException {
+			GroupDbPersister persister = GroupDbPersister.Default.getInstance();
+			List<GroupCode> codes = new ArrayList<>(chunk.size());
+			List<String> uids = new ArrayList<>(chunk.size());
+			for (AdminGroup grp : chunk) {
+				if (grp.isGroupDirty()) {
+					StatementBudget.count("GroupDbPersister.persist");
+					persister.persist(grp.groupToWrite());
+				}
+				if (grp.isGroupCodeDirty()) {
+					codes.add(grp.getGroupCode());
+					uids.add(grp.getBatchUid());
+				}
+			}
+			if (!codes.isEmpty()) {
+				writeCodes(codes, uids, check);
+			}
+			for (AdminGroup grp : chunk) {
+				grp.markWritten();
+			}
+		}
+
+		private static void writeCodes(List<GroupCode> codes, List<String> uids, UniquenessCheck check)
+				throws PersistenceException {
+			GroupCodeDAO dao = GroupCodeDAO.get();
+			if (check == UniquenessCheck.INDEX) {
+				try {
+					dao.persistAll(codes);
+				} catch (RuntimeException e) {
+					if (GroupCodeDAO.isBatchUidViolation(e)) {
+						throw new DuplicateBatchUidException("batch_uid already in use: " + e.getMessage());
+					}
+					throw e;
+				}
+				return;
+			}
+			dao.persistAll(codes);
+			Set<String> duplicates = dao.findNonUnique(uids);
+			if (!duplicates.isEmpty()) {
+				// causes a rollback of the entire chunk
+				throw new DuplicateBatchUidException("batch_uid already in use: " + duplicates);
+			}
+		}
+
+		@Override public void persist(AdminGroup grp, UniquenessCheck check) throws PersistenceException, ValidationException {
+			write(grp, check);
+		}
+	}
 }
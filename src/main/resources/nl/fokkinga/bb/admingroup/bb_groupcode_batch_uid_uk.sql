@@ -0,0 +1,5 @@
+-- Makes the database enforce that a batch_uid is used by at most one group,
+-- as required by StrictManagerImpl.UniquenessCheck.INDEX. Works on Oracle,
+-- PostgreSQL and SQL Server. Creating the index fails when duplicates exist;
+-- GroupCodeDAO.findNonUnique lists them.
+CREATE UNIQUE INDEX bb_groupcode_batch_uid_uk ON bb_groupcode (batch_uid);
@@ -18,11 +18,18 @@ import org.junit.runners.Suite;
 @RunWith(Suite.class)
 @Suite.SuiteClasses( {
 		UtilTest.class
+		, IdCodecTest.class
 		, GroupCodeTest.class
 		, GroupCodeDAOTest.class
+		, GroupValidatorTest.class
 		, AdminGroupTest.class
 		, StrictManagerTest.class
 		, StrictLoadingTest.class
+		, CachingManagerTest.class
+		, AsyncManagerTest.class
+		, EnterpriseGroupImporterTest.class
+		, CourseReconcilerTest.class
+		, OperationMetricsTest.class
 })
 
 public class AllTestsSuite {
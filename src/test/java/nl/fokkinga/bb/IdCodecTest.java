@@ -0,0 +1,50 @@
+package nl.fokkinga.bb;
+
+import org.junit.Test;
+
+import static nl.fokkinga.bb.IdCodec.*;
+import static org.junit.Assert.*;
+
+
+public class IdCodecTest {
+	@Test
+	public void parsePk1Test() {
+		assertEquals(1234, parsePk1("_1234_1"));
+		assertEquals(1234, parsePk1("1234"));
+		assertEquals(Long.MAX_VALUE, parsePk1(String.valueOf(Long.MAX_VALUE)));
+		assertEquals(INVALID, parsePk1(null));
+		assertEquals(INVALID, parsePk1(""));
+		assertEquals(INVALID, parsePk1("_"));
+		assertEquals(INVALID, parsePk1("__1"));
+		assertEquals(INVALID, parsePk1("_12a_1"));
+		assertEquals(INVALID, parsePk1("9223372036854775808"));
+		assertEquals(INVALID, parsePk1("-5"));
+	}
+
+	@Test
+	public void parseSourcedPk1Test() {
+		assertEquals(42, parseSourcedPk1("bblearn#42", "bblearn"));
+		assertEquals(INVALID, parseSourcedPk1("bblearn#abc", "bblearn"));
+		assertEquals(INVALID, parseSourcedPk1("bblearn#", "bblearn"));
+		assertEquals(INVALID, parseSourcedPk1("bblearn", "bblearn"));
+		assertEquals(INVALID, parseSourcedPk1("bbleanr#42", "bblearn"));
+		assertEquals(INVALID, parseSourcedPk1("foo#42", "bblearn"));
+		assertEquals(INVALID, parseSourcedPk1(null, "bblearn"));
+	}
+
+	@Test
+	public void formatTest() {
+		assertEquals("bblearn#42", formatSourcedId("bblearn", 42));
+		assertEquals(3, separatorIndex("foo#bar#baz"));
+		assertEquals(-1, separatorIndex("foobar"));
+		assertEquals(-1, separatorIndex(null));
+	}
+
+	@Test
+	public void isBlankTest() {
+		assertTrue(isBlank(null));
+		assertTrue(isBlank(""));
+		assertTrue(isBlank(" \n\t "));
+		assertFalse(isBlank(" x "));
+	}
+}
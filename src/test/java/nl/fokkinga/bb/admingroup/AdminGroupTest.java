@@ -1,12 +1,17 @@
 package nl.fokkinga.bb.admingroup;
 
 import blackboard.data.ValidationException;
+import blackboard.data.ValidationWarning;
 import blackboard.persist.KeyNotFoundException;
 import blackboard.persist.PersistenceException;
 import nl.fokkinga.bb.AllTestsSuite;
 import nl.fokkinga.bb.Util;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
 import static org.junit.Assert.*;
 
 
@@ -72,4 +77,26 @@ public class AdminGroupTest {
 			fail("group without group code should be returned by AdminGroupDAO");
 		}
 	}
+
+	@Test
+	public void validateAllTest() {
+		List<AdminGroup> grps = new ArrayList<>();
+		for (int i = 0; i < 1000; i++) {
+			AdminGroup ag = new AdminGroup();
+			ag.setTitle("group " + i);
+			ag.setCourseId(AllTestsSuite.crs.getId());
+			ag.setSourcedId("validate", String.valueOf(i));
+			grps.add(ag);
+		}
+		AdminGroup untitled = grps.get(10);
+		untitled.setTitle(" ");
+		AdminGroup nonLatin = grps.get(500);
+		nonLatin.setBatchUid("validate#\u201C500\u201D");
+
+		Map<AdminGroup, List<ValidationWarning>> invalid = GroupValidator.get().validateAll(grps);
+		assertEquals(2, invalid.size());
+		assertEquals(1, invalid.get(untitled).size());
+		assertEquals(1, invalid.get(nonLatin).size());
+		assertTrue(GroupValidator.get().check(grps.get(0)).isEmpty());
+	}
 }
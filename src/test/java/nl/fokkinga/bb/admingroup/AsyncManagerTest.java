@@ -0,0 +1,78 @@
+package nl.fokkinga.bb.admingroup;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * @author <a href="mailto:peter [at] fokkinga.nl">Peter Fokkinga</a>
+ */
+public class AsyncManagerTest extends ManagerTestSetup {
+	AsyncAdminGroupManager mngr;
+
+	@Before
+	public void createManager() {
+		mngr = new AsyncAdminGroupManager(AdminGroupManagerFactory.getStrictManager(), 4, 64);
+	}
+
+	@After
+	public void shutdownManager() {
+		mngr.shutdown();
+	}
+
+	@Test
+	public void parallelLoadTest() throws Exception {
+		List<ListenableFuture<AdminGroup>> lookups = new ArrayList<>();
+		for (int i = 0; i < 50; i++) {
+			lookups.add(mngr.loadSingleByBatchUid(i % 2 == 0 ? codeOne.getBatchUid() : "xxxxx"));
+		}
+		List<AdminGroup> groups = Futures.allAsList(lookups).get(30, TimeUnit.SECONDS);
+		for (int i = 0; i < groups.size(); i++) {
+			if (i % 2 == 0) {
+				assertEquals(grpOne.getId(), groups.get(i).getId());
+			} else {
+				assertNull(groups.get(i));
+			}
+		}
+		assertEquals(2, mngr.loadGroupsByCourseId(crs.getId()).get().size());
+	}
+
+	@Test
+	public void persistFailureTest() throws Exception {
+		AdminGroup ag = new AdminGroup();
+		ag.setTitle("Hello, World!");
+		ag.setCourseId(crs2.getId());
+		ag.setBatchUid(codeOne.getBatchUid());
+		try {
+			mngr.persist(ag).get();
+			fail("persisting an already existing batch_uid should fail for strict mode");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof DuplicateBatchUidException);
+		}
+		assertEquals(0, mngr.loadGroupsByCourseId(crs2.getId()).get().size());
+	}
+
+	@Test
+	public void rejectedAfterShutdownTest() throws Exception {
+		mngr.shutdown();
+		ListenableFuture<AdminGroup> lookup = mngr.loadById(grpOne.getId());
+		assertTrue(lookup.isDone());
+		try {
+			lookup.get();
+			fail("a call after shutdown should not be run");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof RejectedExecutionException);
+		}
+	}
+}
@@ -0,0 +1,254 @@
+package nl.fokkinga.bb.admingroup;
+
+import blackboard.data.ValidationException;
+import blackboard.data.course.Group;
+import blackboard.persist.Id;
+import blackboard.persist.PersistenceException;
+import blackboard.persist.course.GroupDbPersister;
+import nl.fokkinga.bb.Util;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * @author <a href="mailto:peter [at] fokkinga.nl">Peter Fokkinga</a>
+ */
+public class CachingManagerTest extends ManagerTestSetup {
+	CachingManagerImpl mngr;
+
+	@Before
+	public void createManager() {
+		mngr = new CachingManagerImpl(AdminGroupManagerFactory.getStrictManager(), 1024 * 1024, 1, TimeUnit.MINUTES);
+	}
+
+	@Test
+	public void cachedLoadTest() {
+		assertNull(mngr.loadViewByBatchUid("xxxxx"));
+		assertEquals(0, mngr.getCacheStats().hitCount());
+
+		GroupView view = mngr.loadViewByBatchUid(codeOne.getBatchUid());
+		assertNotNull(view);
+		assertEquals(Util.toNumber(codeOne.getGroupId()), view.getPk1());
+		assertSame(view, mngr.loadViewByBatchUid(codeOne.getBatchUid()));
+		assertEquals(1, mngr.getCacheStats().hitCount());
+
+		// not visible while cached: changes made without the caching manager
+		GroupCodeDAO.get().deleteByGroupId(grpOne.getId());
+		assertSame(view, mngr.loadViewByBatchUid(codeOne.getBatchUid()));
+		mngr.invalidateAll();
+		assertNull(mngr.loadViewByBatchUid(codeOne.getBatchUid()));
+	}
+
+	@Test
+	public void cachedGroupsAreNotSharedTest() {
+		AdminGroup grp = mngr.loadSingleByBatchUid(codeOne.getBatchUid());
+		assertNotNull(grp);
+		grp.setTitle("changed, not persisted");
+
+		AdminGroup other = mngr.loadSingleByBatchUid(codeOne.getBatchUid());
+		assertEquals(1, mngr.getCacheStats().hitCount());
+		assertNotSame(grp, other);
+		assertEquals(grp.getId(), other.getId());
+		assertEquals("one", other.getTitle());
+
+		// not visible while cached: changes made without the caching manager
+		GroupCodeDAO.get().deleteByGroupId(grpOne.getId());
+		assertNotNull(mngr.loadSingleByBatchUid(codeOne.getBatchUid()));
+		mngr.invalidateAll();
+		assertNull(mngr.loadSingleByBatchUid(codeOne.getBatchUid()));
+		assertTrue(mngr.loadByBatchUids(Collections.singleton(codeOne.getBatchUid())).isEmpty());
+	}
+
+	@Test
+	public void cacheHitWithoutQueryTest() {
+		assertNotNull(mngr.loadViewByBatchUid(codeOne.getBatchUid()));
+		try (StatementBudget budget = StatementBudget.open()) {
+			AdminGroup grp = mngr.loadSingleByBatchUid(codeOne.getBatchUid());
+			assertEquals(grpOne.getId(), grp.getId());
+			assertEquals(codeOne.getBatchUid(), grp.getBatchUid());
+			assertFalse(grp.isDirty());
+			assertEquals(1, mngr.loadByBatchUids(Collections.singleton(codeOne.getBatchUid())).size());
+			assertEquals(0, budget.getCount());
+		}
+	}
+
+	@Test
+	public void persistRestoredGroupTest() throws PersistenceException, ValidationException {
+		assertNotNull(mngr.loadViewByBatchUid(codeOne.getBatchUid()));
+		AdminGroup grp = mngr.loadSingleByBatchUid(codeOne.getBatchUid());
+		grp.setTitle("renamed");
+		try (StatementBudget budget = StatementBudget.open()) {
+			mngr.persist(grp);
+			// the properties that are not in the view are loaded before writing
+			assertEquals(1, budget.getCount("GroupDbLoader.loadById"));
+			assertEquals(1, budget.getCount("GroupDbPersister.persist"));
+		}
+
+		AdminGroup loaded = AdminGroupManagerFactory.getStrictManager().loadById(grpOne.getId());
+		assertEquals("renamed", loaded.getTitle());
+		assertEquals(codeOne.getBatchUid(), loaded.getBatchUid());
+
+		// the persist removed the view from the cache
+		assertEquals("renamed", mngr.loadViewByBatchUid(codeOne.getBatchUid()).getTitle());
+		grp = mngr.loadSingleByBatchUid(codeOne.getBatchUid());
+		grp.markModified();
+		try {
+			mngr.persist(grp);
+			fail("a restored group should not accept untracked changes");
+		} catch (IllegalStateException e) { /* expected behaviour */ }
+	}
+
+	@Test
+	public void allBatchUidsInvalidatedTest() throws PersistenceException, ValidationException {
+		GroupCodeDAO.get().persist(new GroupCode(grpOne, "foo#second"));
+		assertNotNull(mngr.loadViewByBatchUid(codeOne.getBatchUid()));
+		assertNotNull(mngr.loadViewByBatchUid("foo#second"));
+
+		AdminGroup updated = AdminGroupManagerFactory.getStrictManager().loadById(grpOne.getId());
+		updated.setTitle("renamed");
+		mngr.persist(updated);
+
+		assertEquals("renamed", mngr.loadViewByBatchUid(codeOne.getBatchUid()).getTitle());
+		assertEquals("renamed", mngr.loadViewByBatchUid("foo#second").getTitle());
+	}
+
+	@Test
+	public void rememberedMissTest() throws PersistenceException, ValidationException {
+		// misses are not remembered unless asked for
+		GroupCodeDAO.get().persist(new GroupCode(grpTwo, "foo#miss"));
+		assertNotNull(mngr.loadSingleByBatchUid("foo#miss"));
+		GroupCodeDAO.get().deleteByGroupId(grpTwo.getId());
+
+		mngr = new CachingManagerImpl(AdminGroupManagerFactory.getStrictManager(), 1024 * 1024, 1, 1, TimeUnit.MINUTES);
+		assertNull(mngr.loadSingleByBatchUid("foo#miss"));
+		assertNull(mngr.loadViewByBatchUid("foo#miss"));
+		assertTrue(mngr.loadByBatchUids(Arrays.asList("foo#miss")).isEmpty());
+
+		// not visible while remembered: groups created without the caching manager
+		GroupCodeDAO.get().persist(new GroupCode(grpTwo, "foo#miss"));
+		assertNull(mngr.loadSingleByBatchUid("foo#miss"));
+		GroupCodeDAO.get().deleteByGroupId(grpTwo.getId());
+
+		AdminGroup ag = new AdminGroup();
+		ag.setTitle("Hello, World!");
+		ag.setCourseId(crs.getId());
+		ag.setSourcedId("foo", "miss");
+		mngr.persist(ag);
+
+		AdminGroup grp = mngr.loadSingleByBatchUid("foo#miss");
+		assertNotNull(grp);
+		assertEquals(ag.getId(), grp.getId());
+		mngr.deleteGroupById(ag.getId());
+	}
+
+	@Test
+	public void factoryRemembersMissesTest() throws PersistenceException {
+		CachingManagerImpl factoryMngr = AdminGroupManagerFactory.getCachingManager();
+		factoryMngr.invalidateAll();
+		assertNull(factoryMngr.loadSingleByBatchUid("foo#miss"));
+		GroupCodeDAO.get().persist(new GroupCode(grpTwo, "foo#miss"));
+		assertNull(factoryMngr.loadSingleByBatchUid("foo#miss"));
+		factoryMngr.invalidateAll();
+		assertNotNull(factoryMngr.loadSingleByBatchUid("foo#miss"));
+		factoryMngr.invalidateAll();
+	}
+
+	@Test
+	public void concurrentCourseLookupsTest() throws Exception {
+		final AdminGroupManager strict = AdminGroupManagerFactory.getStrictManager();
+		final AtomicInteger calls = new AtomicInteger();
+		final CountDownLatch entered = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		AdminGroupManager slow = (AdminGroupManager) Proxy.newProxyInstance(AdminGroupManager.class.getClassLoader(),
+				new Class<?>[] { AdminGroupManager.class }, new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if (method.getName().equals("loadViewsByCourseId")) {
+							calls.incrementAndGet();
+							entered.countDown();
+							release.await();
+						}
+						try {
+							return method.invoke(strict, args);
+						} catch (InvocationTargetException e) {
+							throw e.getCause();
+						}
+					}
+				});
+		final CachingManagerImpl slowMngr = new CachingManagerImpl(slow, 1024 * 1024, 1, TimeUnit.MINUTES);
+		Callable<List<GroupView>> lookup = new Callable<List<GroupView>>() {
+			public List<GroupView> call() {
+				return slowMngr.loadViewsByCourseId(crs.getId());
+			}
+		};
+
+		ExecutorService pool = Executors.newFixedThreadPool(2);
+		try {
+			Future<List<GroupView>> first = pool.submit(lookup);
+			assertTrue(entered.await(10, TimeUnit.SECONDS));
+			Future<List<GroupView>> second = pool.submit(lookup);
+			// give the second lookup time to join the first
+			Thread.sleep(200);
+			release.countDown();
+
+			List<GroupView> views = first.get(10, TimeUnit.SECONDS);
+			assertFalse(views.isEmpty());
+			assertEquals(views, second.get(10, TimeUnit.SECONDS));
+			assertNotSame(views, second.get());
+			assertEquals(1, calls.get());
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	@Test
+	public void persistInvalidatesTest() throws PersistenceException, ValidationException {
+		AdminGroup grp = mngr.loadSingleByBatchUid(codeOne.getBatchUid());
+		AdminGroup updated = AdminGroupManagerFactory.getStrictManager().loadById(grp.getId());
+		updated.setBatchUid("foo#qux");
+		mngr.persist(updated);
+
+		assertNull(mngr.loadSingleByBatchUid(codeOne.getBatchUid()));
+		assertEquals(grp.getId(), mngr.loadSingleByBatchUid("foo#qux").getId());
+	}
+
+	@Test
+	public void deleteInvalidatesTest() {
+		assertNotNull(mngr.loadSingleByBatchUid(codeOne.getBatchUid()));
+		mngr.deleteGroupById(grpOne.getId());
+		assertNull(mngr.loadSingleByBatchUid(codeOne.getBatchUid()));
+	}
+
+	@Test
+	public void groupSetInvalidatesTest() {
+		AdminGroup grp = mngr.loadSingleByBatchUid(codeOne.getBatchUid());
+		assertFalse(Id.isValidPkId(grp.getSetId()));
+		mngr.addGroupToGroupSet(grpOne.getId(), grpSet.getId());
+		assertEquals(grpSet.getId(), mngr.loadSingleByBatchUid(codeOne.getBatchUid()).getSetId());
+	}
+
+	@Test
+	public void duplicateBatchUidTest() throws PersistenceException, ValidationException {
+		Group g2 = new Group();
+		g2.setTitle("Hello, World!");
+		g2.setCourseId(codeOne.getCourseId());
+		GroupDbPersister.Default.getInstance().persist(g2);
+		GroupCodeDAO.get().persist(new GroupCode(g2, codeOne.getBatchUid()));
+
+		try {
+			mngr.loadSingleByBatchUid(codeOne.getBatchUid());
+			fail("duplicate batch_uid should cause IllegalStateException");
+		} catch (IllegalStateException e) { /* expected behaviour */ }
+	}
+}
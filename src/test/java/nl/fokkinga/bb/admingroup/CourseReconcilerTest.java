@@ -0,0 +1,116 @@
+package nl.fokkinga.bb.admingroup;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * @author <a href="mailto:peter [at] fokkinga.nl">Peter Fokkinga</a>
+ */
+public class CourseReconcilerTest extends ManagerTestSetup {
+
+	@Test
+	public void reconcileTest() {
+		AdminGroupManager mngr = AdminGroupManagerFactory.getStrictManager();
+		CourseReconciler reconciler = new CourseReconciler(mngr, "junit");
+
+		List<CourseReconciler.Desired> desired = Arrays.asList(
+				CourseReconciler.Desired.groupSet("set", "Tutorials"),
+				CourseReconciler.Desired.group("a", "Tutorial A", "set"),
+				CourseReconciler.Desired.group("b", "Tutorial B", null));
+		CourseReconciler.Plan plan = reconciler.plan(crs2.getId(), desired);
+		assertEquals(3, plan.getInserts().size());
+		assertTrue(plan.getDeletes().isEmpty());
+		assertTrue(reconciler.apply(plan).isSuccess());
+
+		AdminGroup set = mngr.loadSingleByBatchUid("junit#set");
+		assertTrue(set.isGroupSet());
+		assertEquals(set.getId(), mngr.loadSingleByBatchUid("junit#a").getSetId());
+		assertNull(mngr.loadSingleByBatchUid("junit#b").getSetId());
+
+		// nothing changed, nothing to write
+		assertTrue(reconciler.plan(crs2.getId(), desired).isEmpty());
+
+		desired = Arrays.asList(
+				CourseReconciler.Desired.groupSet("set", "Tutorials"),
+				CourseReconciler.Desired.group("b", "Tutorial B, renamed", "set"));
+		plan = reconciler.plan(crs2.getId(), desired);
+		assertEquals(0, plan.getInserts().size());
+		assertEquals(1, plan.getUpdates().size());
+		assertEquals(1, plan.getMoves().size());
+		assertEquals(1, plan.getDeletes().size());
+		assertTrue(reconciler.apply(plan).isSuccess());
+
+		assertNull(mngr.loadSingleByBatchUid("junit#a"));
+		AdminGroup grp = mngr.loadSingleByBatchUid("junit#b");
+		assertEquals("Tutorial B, renamed", grp.getTitle());
+		assertEquals(set.getId(), grp.getSetId());
+		assertTrue(reconciler.plan(crs2.getId(), desired).isEmpty());
+
+		mngr.deleteGroupById(set.getId());
+	}
+
+	@Test
+	public void keepGroupSetOfStayingGroupTest() {
+		AdminGroupManager mngr = AdminGroupManagerFactory.getStrictManager();
+		CourseReconciler reconciler = new CourseReconciler(mngr, "junit");
+		assertTrue(reconciler.apply(reconciler.plan(crs2.getId(), Arrays.asList(
+				CourseReconciler.Desired.groupSet("old", "Old set"),
+				CourseReconciler.Desired.group("c", "Tutorial C", "old")))).isSuccess());
+		AdminGroup set = mngr.loadSingleByBatchUid("junit#old");
+
+		// "c" may stay in its group set, so the set is not deleted with it
+		CourseReconciler.Plan plan = reconciler.plan(crs2.getId(), Arrays.asList(
+				CourseReconciler.Desired.group("c", "Tutorial C", null)));
+		assertTrue(plan.getDeletes().isEmpty());
+		assertTrue(reconciler.apply(plan).isSuccess());
+		assertEquals(set.getId(), mngr.loadSingleByBatchUid("junit#c").getSetId());
+
+		mngr.deleteGroupById(set.getId());
+	}
+
+	@Test
+	public void reportFailedMoveTest() {
+		AdminGroupManager mngr = AdminGroupManagerFactory.getStrictManager();
+		CourseReconciler reconciler = new CourseReconciler(mngr, "junit");
+		assertTrue(reconciler.apply(reconciler.plan(crs2.getId(), Arrays.asList(
+				CourseReconciler.Desired.group("d", "Tutorial D", null),
+				CourseReconciler.Desired.group("e", "Not a set", null)))).isSuccess());
+
+		// "e" is desired as group set, but exists as a group
+		CourseReconciler.Plan plan = reconciler.plan(crs2.getId(), Arrays.asList(
+				CourseReconciler.Desired.groupSet("e", "Not a set"),
+				CourseReconciler.Desired.group("d", "Tutorial D", "e")));
+		assertEquals(1, plan.getMoves().size());
+		BulkPersistResult result = reconciler.apply(plan);
+		assertFalse(result.isSuccess());
+		assertEquals(1, result.getFailures().size());
+		assertEquals("junit#d", result.getFailures().keySet().iterator().next().getBatchUid());
+	}
+
+	@Test
+	public void skipGroupOfFailedGroupSetTest() throws Exception {
+		AdminGroupManager mngr = AdminGroupManagerFactory.getStrictManager();
+		CourseReconciler reconciler = new CourseReconciler(mngr, "junit");
+		// the batch_uid of the group set is already taken in the other course
+		AdminGroup other = new AdminGroup();
+		other.setCourseId(crs.getId());
+		other.setSourcedId("junit", "f");
+		other.setTitle("Other course");
+		mngr.persist(other);
+
+		CourseReconciler.Plan plan = reconciler.plan(crs2.getId(), Arrays.asList(
+				CourseReconciler.Desired.groupSet("f", "Tutorials"),
+				CourseReconciler.Desired.group("g", "Tutorial G", "f")));
+		assertEquals(2, plan.getInserts().size());
+		BulkPersistResult result = reconciler.apply(plan);
+		assertEquals(2, result.getFailures().size());
+		assertNull(mngr.loadSingleByBatchUid("junit#g"));
+
+		mngr.deleteGroupById(other.getId());
+	}
+}
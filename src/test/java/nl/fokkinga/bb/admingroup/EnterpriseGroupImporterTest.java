@@ -0,0 +1,164 @@
+package nl.fokkinga.bb.admingroup;
+
+import blackboard.persist.PersistenceException;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * @author <a href="mailto:peter [at] fokkinga.nl">Peter Fokkinga</a>
+ */
+public class EnterpriseGroupImporterTest extends ManagerTestSetup {
+
+	private static InputStream feed(String groups) {
+		String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<enterprise>"
+				+ "<properties><datasource>junit</datasource></properties>"
+				+ "<person><sourcedid><source>junit</source><id>p1</id></sourcedid></person>"
+				+ groups + "</enterprise>";
+		return new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static String group(String id, String type, String title, String parentSource, String parentId) {
+		return "<group><sourcedid><source>junit</source><id>" + id + "</id></sourcedid>"
+				+ "<grouptype><scheme>junit</scheme><typevalue level=\"1\">" + type + "</typevalue></grouptype>"
+				+ "<description><short>" + title + "</short><long>a long description</long></description>"
+				+ "<relationship relation=\"1\"><sourcedid><source>" + parentSource + "</source><id>" + parentId
+				+ "</id></sourcedid><label>parent</label></relationship></group>";
+	}
+
+	@Test
+	public void importTest() throws Exception {
+		AdminGroupManager mngr = AdminGroupManagerFactory.getStrictManager();
+		EnterpriseGroupImporter importer = new EnterpriseGroupImporter(mngr);
+		importer.setBatchSize(2);
+
+		EnterpriseGroupImporter.Result result = importer.importGroups(feed(
+				group("set1", "Group Set", "Imported set", "sis", crs.getBatchUid())
+				+ group("grp1", "Group", "Imported group", "junit", "set1")
+				+ group("grp2", "Group", "Course group", "sis", crs.getBatchUid())
+				+ group("grp3", "Group", "Unknown parent", "sis", "no.such.course")));
+		assertEquals(3, result.getPersisted());
+		assertEquals(1, result.getFailures().size());
+		assertTrue(result.getFailures().containsKey("junit#grp3"));
+
+		AdminGroup set = mngr.loadSingleByBatchUid("junit#set1");
+		assertTrue(set.isGroupSet());
+		AdminGroup grp = mngr.loadSingleByBatchUid("junit#grp1");
+		assertEquals("Imported group", grp.getTitle());
+		assertEquals(set.getId(), grp.getSetId());
+		assertEquals(crs.getId(), grp.getCourseId());
+		assertNull(mngr.loadSingleByBatchUid("junit#grp2").getSetId());
+
+		result = importer.importGroups(feed(
+				group("grp2", "Group", "Course group, renamed", "junit", "set1")
+				+ "<group recstatus=\"3\"><sourcedid><source>junit</source><id>grp1</id></sourcedid></group>"));
+		assertTrue(result.isSuccess());
+		assertEquals(1, result.getPersisted());
+		assertEquals(1, result.getMoved());
+		assertEquals(1, result.getDeleted());
+		assertNull(mngr.loadSingleByBatchUid("junit#grp1"));
+		grp = mngr.loadSingleByBatchUid("junit#grp2");
+		assertEquals("Course group, renamed", grp.getTitle());
+		assertEquals(set.getId(), grp.getSetId());
+
+		mngr.deleteGroupById(set.getId());
+	}
+
+	@Test
+	public void feedOrderTest() throws Exception {
+		AdminGroupManager mngr = AdminGroupManagerFactory.getStrictManager();
+		EnterpriseGroupImporter importer = new EnterpriseGroupImporter(mngr);
+		String delete = "<group recstatus=\"3\"><sourcedid><source>junit</source><id>grp4</id></sourcedid></group>";
+
+		// added and deleted again in what would have been one batch
+		EnterpriseGroupImporter.Result result = importer.importGroups(feed(
+				group("grp4", "Group", "Short lived", "sis", crs.getBatchUid()) + delete));
+		assertTrue(result.isSuccess());
+		assertEquals(1, result.getPersisted());
+		assertEquals(1, result.getDeleted());
+		assertNull(mngr.loadSingleByBatchUid("junit#grp4"));
+
+		// deleted and added again, the last of two records wins
+		result = importer.importGroups(feed(delete
+				+ group("grp4", "Group", "First title", "sis", crs.getBatchUid())
+				+ group("grp4", "Group", "Second title", "sis", crs.getBatchUid())));
+		assertTrue(result.isSuccess());
+		assertEquals(2, result.getPersisted());
+		assertEquals(1, mngr.loadByBatchUid("junit#grp4").size());
+		assertEquals("Second title", mngr.loadSingleByBatchUid("junit#grp4").getTitle());
+	}
+
+	@Test
+	public void duplicateBatchUidTest() throws Exception {
+		AdminGroupManager mngr = AdminGroupManagerFactory.getStrictManager();
+		GroupCodeDAO.get().persist(new GroupCode(grpOne, "junit#dup"));
+		GroupCodeDAO.get().persist(new GroupCode(grpTwo, "junit#dup"));
+
+		// the duplicate fails, the other record of the batch is written
+		EnterpriseGroupImporter.Result result = new EnterpriseGroupImporter(mngr).importGroups(feed(
+				group("dup", "Group", "Duplicate", "sis", crs.getBatchUid())
+				+ group("grp5", "Group", "Unique", "sis", crs.getBatchUid())));
+		assertEquals(1, result.getFailed());
+		assertTrue(result.getFailures().get("junit#dup") instanceof IllegalStateException);
+		assertEquals(1, result.getPersisted());
+		assertEquals("Unique", mngr.loadSingleByBatchUid("junit#grp5").getTitle());
+	}
+
+	@Test
+	public void failedGroupNotMovedTest() throws Exception {
+		final AdminGroupManager strict = AdminGroupManagerFactory.getStrictManager();
+		EnterpriseGroupImporter.Result result = new EnterpriseGroupImporter(strict).importGroups(feed(
+				group("set2", "Group Set", "Imported set", "sis", crs.getBatchUid())
+				+ group("grp6", "Group", "Course group", "sis", crs.getBatchUid())));
+		assertTrue(result.isSuccess());
+
+		// a manager that refuses to persist any group
+		AdminGroupManager refusing = (AdminGroupManager) Proxy.newProxyInstance(
+				AdminGroupManager.class.getClassLoader(), new Class<?>[] { AdminGroupManager.class },
+				new InvocationHandler() {
+					@SuppressWarnings("unchecked")
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if (method.getName().equals("persistAll")) {
+							BulkPersistResult refused = new BulkPersistResult();
+							for (AdminGroup grp : (Collection<AdminGroup>) args[0]) {
+								refused.addFailure(grp, new PersistenceException("refused"));
+							}
+							return refused;
+						}
+						try {
+							return method.invoke(strict, args);
+						} catch (InvocationTargetException e) {
+							throw e.getCause();
+						}
+					}
+				});
+		result = new EnterpriseGroupImporter(refusing).importGroups(feed(
+				group("grp6", "Group", "Course group, moved", "junit", "set2")));
+		assertEquals(1, result.getFailed());
+		assertEquals(0, result.getMoved());
+		assertNull(strict.loadSingleByBatchUid("junit#grp6").getSetId());
+
+		strict.deleteGroupById(strict.loadSingleByBatchUid("junit#set2").getId());
+	}
+
+	@Test
+	public void failuresCappedTest() {
+		EnterpriseGroupImporter.Result result = new EnterpriseGroupImporter.Result();
+		for (int i = 0; i < EnterpriseGroupImporter.Result.MAX_FAILURES + 10; i++) {
+			result.addFailure("junit#" + i, new IllegalArgumentException());
+		}
+		assertFalse(result.isSuccess());
+		assertEquals(EnterpriseGroupImporter.Result.MAX_FAILURES + 10, result.getFailed());
+		assertEquals(EnterpriseGroupImporter.Result.MAX_FAILURES, result.getFailures().size());
+	}
+}
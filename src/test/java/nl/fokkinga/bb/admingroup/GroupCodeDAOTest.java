@@ -4,6 +4,7 @@ import blackboard.data.ValidationException;
 import blackboard.data.course.*;
 import blackboard.persist.Id;
 import blackboard.persist.PersistenceException;
+import blackboard.persist.PersistenceRuntimeException;
 import blackboard.persist.course.GroupDbLoader;
 import blackboard.persist.course.GroupDbPersister;
 import blackboard.persist.course.impl.GroupDAO;
@@ -11,7 +12,11 @@ import nl.fokkinga.bb.AllTestsSuite;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.sql.BatchUpdateException;
+import java.sql.SQLException;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.Assert.*;
 
@@ -75,6 +80,32 @@ public class GroupCodeDAOTest {
 		assertFalse(dao.isUnique("foo", grpTwo.getId()));
 	}
 
+	@Test
+	public void existsByBatchUidTest() {
+		GroupCodeDAO dao = GroupCodeDAO.get();
+		assertFalse(dao.existsByBatchUid("foo"));
+
+		dao.persist(new GroupCode(grpOne, "foo"));
+		assertTrue(dao.existsByBatchUid("foo"));
+		assertFalse(dao.existsByBatchUid("bar"));
+
+		dao.persist(new GroupCode(grpThreeInCrs2, "foo"));
+		assertTrue(dao.existsByBatchUid("foo"));
+	}
+
+	@Test
+	public void isBatchUidViolationTest() {
+		SQLException pg = new SQLException("ERROR: duplicate key value violates unique constraint \"bb_groupcode_batch_uid_uk\"", "23505");
+		assertTrue(GroupCodeDAO.isBatchUidViolation(new PersistenceRuntimeException("persist", pg)));
+
+		BatchUpdateException batch = new BatchUpdateException("batch failed", "23000", new int[0]);
+		batch.setNextException(new SQLException("ORA-00001: unique constraint (BBLEARN.BB_GROUPCODE_BATCH_UID_UK) violated", "23000"));
+		assertTrue(GroupCodeDAO.isBatchUidViolation(batch));
+
+		assertFalse(GroupCodeDAO.isBatchUidViolation(new SQLException("violates foreign key constraint \"bb_groupcode_fk1\"", "23503")));
+		assertFalse(GroupCodeDAO.isBatchUidViolation(new RuntimeException("bb_groupcode_batch_uid_uk")));
+	}
+
 	@Test
 	public void isUniqueInCourseTest() {
 		GroupCodeDAO dao = GroupCodeDAO.get();
@@ -118,6 +149,41 @@ public class GroupCodeDAOTest {
 		assertEquals(GroupCode.class, codes.get(0).getClass());
 	}
 
+	@Test
+	public void loadByGroupIdsTest() {
+		GroupCodeDAO dao = GroupCodeDAO.get();
+		dao.persist(new GroupCode(grpOne, "foo"));
+		dao.persist(new GroupCode(grpOne, "bar"));
+		dao.persist(new GroupCode(grpThreeInCrs2, "baz"));
+		Map<Id, List<GroupCode>> codes = dao.loadByGroupIds(Arrays.asList(grpOne.getId(), grpTwo.getId(),
+				grpThreeInCrs2.getId()));
+		assertEquals(2, codes.size());
+		assertEquals(2, codes.get(grpOne.getId()).size());
+		assertNull(codes.get(grpTwo.getId()));
+		assertEquals("baz", codes.get(grpThreeInCrs2.getId()).get(0).getBatchUid());
+	}
+
+	@Test
+	public void loadGroupCodesTogetherTest() {
+		GroupCodeDAO dao = GroupCodeDAO.get();
+		dao.persist(new GroupCode(grpOne, "foo"));
+		dao.persist(new GroupCode(grpThreeInCrs2, "baz"));
+		// groups that did not get their group code from the DAO
+		List<AdminGroup> groups = Arrays.asList(new AdminGroup(), new AdminGroup(), new AdminGroup());
+		groups.get(0).setId(grpOne.getId());
+		groups.get(1).setId(grpTwo.getId());
+		groups.get(2).setId(grpThreeInCrs2.getId());
+		AdminGroup.loadGroupCodesTogether(groups);
+		assertFalse(groups.get(2).isGroupCodeLoaded());
+
+		assertEquals("foo", groups.get(0).getBatchUid());
+		assertTrue(groups.get(1).isGroupCodeLoaded());
+		assertTrue(groups.get(2).isGroupCodeLoaded());
+		assertEquals(GroupCode.generateBatchUid(grpTwo.getId()), groups.get(1).getBatchUid());
+		assertEquals("baz", groups.get(2).getBatchUid());
+		assertFalse(groups.get(2).isGroupCodeDirty());
+	}
+
 	@Test
 	public void loadByBatchUidTest() throws PersistenceException {
 		GroupCodeDAO dao = GroupCodeDAO.get();
@@ -125,10 +191,15 @@ public class GroupCodeDAOTest {
 		assertNotNull(codes);
 		assertEquals(0, codes.size());
 
-		dao.persist(new GroupCode(grpOne, "foo"));
+		GroupCode foo = new GroupCode(grpOne, "foo");
+		dao.persist(foo);
 		codes = dao.loadByBatchUid("foo");
 		assertEquals(1, codes.size());
 		assertEquals(GroupCode.class, codes.get(0).getClass());
+		assertEquals(foo.getId(), codes.get(0).getId());
+		assertEquals("foo", codes.get(0).getBatchUid());
+		assertEquals(grpOne.getId(), codes.get(0).getGroupId());
+		assertEquals(grpOne.getCourseId(), codes.get(0).getCourseId());
 
 		dao.persist(new GroupCode(grpOne, "bar"));
 		codes = dao.loadByBatchUid("foo");
@@ -164,6 +235,22 @@ public class GroupCodeDAOTest {
 		assertEquals(GroupCode.class, codes.get(0).getClass());
 	}
 
+	@Test
+	public void loadBySourcedIdWildcardTest() {
+		GroupCodeDAO dao = GroupCodeDAO.get();
+		dao.persist(new GroupCode(grpOne, "j_nit#foo"));
+		dao.persist(new GroupCode(grpOne, "jxnit#bar"));
+		dao.persist(new GroupCode(grpTwo, "j%#baz"));
+
+		List<GroupCode> codes = dao.loadBySourcedId("j_nit", null);
+		assertEquals(1, codes.size());
+		assertEquals("j_nit#foo", codes.get(0).getBatchUid());
+
+		codes = dao.loadBySourcedId("j%", null);
+		assertEquals(1, codes.size());
+		assertEquals("j%#baz", codes.get(0).getBatchUid());
+	}
+
 	@Test
 	public void loadByGroupSetTest() throws PersistenceException, ValidationException, GroupsMismatchException {
 		GroupCodeDAO dao = GroupCodeDAO.get();
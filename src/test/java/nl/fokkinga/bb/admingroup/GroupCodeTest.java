@@ -56,6 +56,15 @@ public class GroupCodeTest {
 		} catch (IllegalArgumentException e) { /* expected behaviour */ }
 	}
 
+	@Test
+	public void extractPk1Test() {
+		assertEquals(42, GroupCode.extractPk1("bblearn#42"));
+		assertEquals(Util.toNumber(grpSet.getId()), GroupCode.extractPk1(GroupCode.generateBatchUid(grpSet.getId())));
+		assertEquals(-1, GroupCode.extractPk1("bblearn#abc"));
+		assertEquals(-1, GroupCode.extractPk1("foo#42"));
+		assertEquals(-1, GroupCode.extractPk1(null));
+	}
+
 	@Test
 	public void emptyTest() {
 		GroupCode code = new GroupCode();
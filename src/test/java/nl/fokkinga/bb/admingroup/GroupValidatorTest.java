@@ -0,0 +1,85 @@
+package nl.fokkinga.bb.admingroup;
+
+import blackboard.data.ValidationWarning;
+import blackboard.data.course.Course;
+import nl.fokkinga.bb.AllTestsSuite;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * @author <a href="mailto:peter [at] fokkinga.nl">Peter Fokkinga</a>
+ */
+public class GroupValidatorTest {
+	Course crs;
+
+	@Before
+	public void setup() {
+		crs = AllTestsSuite.crs;
+	}
+
+	private List<AdminGroup> createGroups(int count) {
+		List<AdminGroup> grps = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			AdminGroup grp = new AdminGroup();
+			grp.setCourseId(crs.getId());
+			// every third group is invalid
+			grp.setTitle(i % 3 == 0 ? "" : "group " + i);
+			grp.setSourcedId("junit", "validator" + i);
+			grps.add(grp);
+		}
+		return grps;
+	}
+
+	@Test
+	public void singleThreadTest() {
+		List<AdminGroup> grps = createGroups(10);
+		Map<AdminGroup, List<ValidationWarning>> invalid = GroupValidator.get().validateAll(grps);
+		assertEquals(4, invalid.size());
+		assertTrue(invalid.containsKey(grps.get(0)));
+		assertFalse(invalid.containsKey(grps.get(1)));
+	}
+
+	@Test
+	public void parallelTest() {
+		List<AdminGroup> grps = createGroups(3000);
+		Map<AdminGroup, List<ValidationWarning>> invalid = GroupValidator.get().validateAll(grps);
+		assertEquals(1000, invalid.size());
+		for (int i = 0; i < grps.size(); i++) {
+			assertEquals(i % 3 == 0, invalid.containsKey(grps.get(i)));
+		}
+
+		// the shared pool is reused by the next call
+		ForkJoinPool pool = GroupValidator.sharedPool();
+		assertEquals(1000, GroupValidator.get().validateAll(grps).size());
+		assertSame(pool, GroupValidator.sharedPool());
+		assertFalse(pool.isShutdown());
+	}
+
+	@Test
+	public void ownPoolTest() {
+		ForkJoinPool pool = new ForkJoinPool(2);
+		try {
+			List<AdminGroup> grps = createGroups(1000);
+			assertEquals(334, new GroupValidator(pool).validateAll(grps).size());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void shutdownTest() {
+		ForkJoinPool pool = GroupValidator.sharedPool();
+		GroupValidator.shutdown();
+		assertTrue(pool.isShutdown());
+		assertNotSame(pool, GroupValidator.sharedPool());
+		assertEquals(1000, GroupValidator.get().validateAll(createGroups(3000)).size());
+	}
+}
@@ -9,6 +9,9 @@ import blackboard.persist.course.GroupDbPersister;
 import nl.fokkinga.bb.AllTestsSuite;
 import org.junit.Before;
 
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.List;
 
 
@@ -48,4 +51,24 @@ public class ManagerTestSetup {
 		dao.persist(grpTwo);
 		// no group code!
 	}
+
+	static void createBatchUidIndex() {
+		executeDdl("CREATE UNIQUE INDEX " + GroupCodeDAO.BATCH_UID_INDEX + " ON bb_groupcode (batch_uid)");
+	}
+
+	static void dropBatchUidIndex() {
+		executeDdl("DROP INDEX " + GroupCodeDAO.BATCH_UID_INDEX);
+	}
+
+	private static void executeDdl(final String ddl) {
+		JdbcSupport.execute("executeDdl", new JdbcSupport.Work<Void>() {
+			@Override
+			public Void execute(Connection con) throws SQLException {
+				try (Statement stmt = con.createStatement()) {
+					stmt.execute(ddl);
+				}
+				return null;
+			}
+		});
+	}
 }
@@ -0,0 +1,91 @@
+package nl.fokkinga.bb.admingroup;
+
+import org.junit.After;
+import org.junit.Test;
+
+import javax.management.Attribute;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * @author <a href="mailto:peter [at] fokkinga.nl">Peter Fokkinga</a>
+ */
+public class OperationMetricsTest extends ManagerTestSetup {
+
+	@After
+	public void disable() {
+		OperationMetrics.setEnabled(false);
+		OperationMetrics.reset();
+	}
+
+	private static Map<String, OperationMetrics.Snapshot> snapshot() {
+		Map<String, OperationMetrics.Snapshot> result = new HashMap<>();
+		for (OperationMetrics.Snapshot op : OperationMetrics.snapshot()) {
+			result.put(op.getName(), op);
+		}
+		return result;
+	}
+
+	@Test
+	public void recordTest() {
+		AdminGroupManager mngr = AdminGroupManagerFactory.getStrictManager();
+		OperationMetrics.reset();
+		OperationMetrics.setEnabled(true);
+		assertNotNull(mngr.loadById(grpOne.getId()));
+		try {
+			mngr.persistAll(Collections.<AdminGroup>emptyList(), 0);
+			fail("chunk size 0 should not be accepted");
+		} catch (IllegalArgumentException e) { /* expected */ }
+
+		Map<String, OperationMetrics.Snapshot> ops = snapshot();
+		OperationMetrics.Snapshot load = ops.get("StrictManagerImpl.loadById");
+		assertEquals(1, load.getCount());
+		assertEquals(0, load.getErrors());
+		assertEquals(1, load.getRows());
+		assertTrue(load.getP50Micros() <= load.getP99Micros());
+		assertTrue(load.getP99Micros() <= load.getMaxMicros());
+		assertEquals(1, ops.get("AdminGroupDAO.loadByIds").getCount());
+		assertEquals(1, ops.get("StrictManagerImpl.persistAll").getErrors());
+
+		OperationMetrics.setEnabled(false);
+		mngr.loadById(grpOne.getId());
+		assertEquals(1, snapshot().get("StrictManagerImpl.loadById").getCount());
+	}
+
+	@Test
+	public void mbeanTest() throws Exception {
+		AdminGroupManagerFactory.getStrictManager();
+		ObjectName name = OperationMetrics.getObjectName();
+		assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+		ManagementFactory.getPlatformMBeanServer().setAttribute(name, new Attribute("Enabled", true));
+		assertTrue(OperationMetrics.isEnabled());
+
+		AdminGroupManagerFactory.shutdown();
+		assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+		OperationMetrics.registerMBean();
+		assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+	}
+
+	@Test
+	public void indexedManagerPrefixTest() {
+		OperationMetrics.reset();
+		OperationMetrics.setEnabled(true);
+		AdminGroupManagerFactory.getStrictManager().loadById(grpOne.getId());
+		createBatchUidIndex();
+		try {
+			AdminGroupManagerFactory.getIndexedStrictManager().loadById(grpOne.getId());
+		} finally {
+			dropBatchUidIndex();
+		}
+
+		Map<String, OperationMetrics.Snapshot> ops = snapshot();
+		assertEquals(1, ops.get("StrictManagerImpl.loadById").getCount());
+		assertEquals(1, ops.get("StrictManagerImpl(INDEX).loadById").getCount());
+	}
+}
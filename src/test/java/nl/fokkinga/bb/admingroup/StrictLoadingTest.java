@@ -8,7 +8,10 @@ import blackboard.persist.course.GroupDbPersister;
 import nl.fokkinga.bb.Util;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.Assert.*;
 
@@ -43,6 +46,21 @@ public class StrictLoadingTest extends ManagerTestSetup {
 		assertEquals(grpPk1, gc.getSourcedIdId());
 	}
 
+	@Test
+	public void loadByIdsTest() throws PersistenceException {
+		AdminGroupManager mngr = AdminGroupManagerFactory.getStrictManager();
+		Id unknownId = Id.generateId(Group.DATA_TYPE, 999L);
+		List<AdminGroup> grps = mngr.loadByIds(Arrays.asList(grpTwo.getId(), unknownId, grpOne.getId()));
+		assertNotNull(grps);
+		assertEquals(2, grps.size());
+		assertEquals(grpTwo.getId(), grps.get(0).getId());
+		assertEquals(grpOne.getId(), grps.get(1).getId());
+		assertEquals(codeOne, grps.get(1).getGroupCode());
+		assertEquals(GroupCode.generateBatchUid(grpTwo.getId()), grps.get(0).getBatchUid());
+
+		assertTrue(mngr.loadByIds(Arrays.asList(unknownId)).isEmpty());
+	}
+
 	@Test
 	public void loadGroupByBatchUidTest() throws PersistenceException, ValidationException {
 		AdminGroupManager mngr = AdminGroupManagerFactory.getStrictManager();
@@ -103,6 +121,30 @@ public class StrictLoadingTest extends ManagerTestSetup {
 		} catch (IllegalStateException e) { /* expected behaviour */ }
 	}
 
+	@Test
+	public void loadGroupsByBatchUidsTest() throws PersistenceException, ValidationException {
+		AdminGroupManager mngr = AdminGroupManagerFactory.getStrictManager();
+		String setUid = GroupCode.generateBatchUid(grpSet.getId());
+		Map<String, AdminGroup> grps = mngr.loadByBatchUids(Arrays.asList("xxxxx", codeOne.getBatchUid(), setUid));
+		assertNotNull(grps);
+		assertEquals(2, grps.size());
+		assertFalse(grps.containsKey("xxxxx"));
+		assertEquals(codeOne.getGroupId(), grps.get(codeOne.getBatchUid()).getId());
+		assertEquals(grpSet.getId(), grps.get(setUid).getId());
+		assertEquals(setUid, grps.get(setUid).getBatchUid());
+
+		Group g2 = new Group();
+		g2.setTitle("Hello, World!");
+		g2.setCourseId(codeOne.getCourseId());
+		GroupDbPersister.Default.getInstance().persist(g2);
+		GroupCodeDAO.get().persist(new GroupCode(g2, codeOne.getBatchUid()));
+
+		try {
+			mngr.loadByBatchUids(Arrays.asList(setUid, codeOne.getBatchUid()));
+			fail("duplicate batch_uid should cause IllegalStateException");
+		} catch (IllegalStateException e) { /* expected behaviour */ }
+	}
+
 	@Test
 	public void loadGroupsByCourseIdTest() {
 		AdminGroupManager mngr = AdminGroupManagerFactory.getStrictManager();
@@ -117,6 +159,165 @@ public class StrictLoadingTest extends ManagerTestSetup {
 		}
 	}
 
+	@Test
+	public void visitGroupsByCourseIdTest() {
+		AdminGroupManager mngr = AdminGroupManagerFactory.getStrictManager();
+		final List<AdminGroup> visited = new ArrayList<>();
+		GroupVisitor visitor = new GroupVisitor() {
+			public void visit(AdminGroup grp) {
+				visited.add(grp);
+			}
+		};
+		mngr.visitGroupsByCourseId(crs2.getId(), visitor);
+		assertEquals(0, visited.size());
+
+		mngr.visitGroupsByCourseId(crs.getId(), 1, visitor);
+		assertEquals(2, visited.size());
+		for (AdminGroup grp : visited) {
+			assertFalse(grp.isGroupSet());
+			assertNotNull(grp.getBatchUid());
+		}
+
+		// a second group code does not make the group visited twice
+		GroupCodeDAO.get().persist(new GroupCode(grpOne, "foo#second"));
+		visited.clear();
+		mngr.visitGroupsByCourseId(crs.getId(), 1, visitor);
+		assertEquals(2, visited.size());
+		assertFalse(visited.get(0).getId().equals(visited.get(1).getId()));
+	}
+
+	@Test
+	public void loadViewsByCourseIdTest() {
+		AdminGroupManager mngr = AdminGroupManagerFactory.getStrictManager();
+		assertEquals(0, mngr.loadViewsByCourseId(crs2.getId()).size());
+
+		List<GroupView> views = mngr.loadViewsByCourseId(crs.getId());
+		assertEquals(3, views.size());
+		for (GroupView view : views) {
+			assertEquals(Util.toNumber(crs.getId()), view.getCoursePk1());
+			if (view.getPk1() == Util.toNumber(grpOne.getId())) {
+				assertEquals("foo#bar", view.getBatchUid());
+				assertEquals("one", view.getTitle());
+				assertEquals(0, view.getSetPk1());
+			} else if (view.getPk1() == Util.toNumber(grpTwo.getId())) {
+				assertEquals(GroupCode.generateBatchUid(grpTwo.getId()), view.getBatchUid());
+				assertEquals(Util.toNumber(grpSet.getId()), view.getSetPk1());
+			} else {
+				assertTrue(view.isGroupSet());
+			}
+		}
+		GroupView view = mngr.loadById(grpOne.getId()).toView();
+		assertTrue(views.contains(view));
+		assertEquals("foo#bar", view.getBatchUid());
+	}
+
+	@Test
+	public void statementCountTest() {
+		AdminGroupManager mngr = AdminGroupManagerFactory.getStrictManager();
+		try (StatementBudget budget = StatementBudget.open(1, StatementBudget.Mode.FAIL)) {
+			AdminGroup grp = mngr.loadById(grpOne.getId());
+			// the group code is loaded together with the group
+			assertEquals("foo#bar", grp.getBatchUid());
+			assertEquals(1, budget.getCount("AdminGroupDAO.loadByIds"));
+		}
+
+		try (StatementBudget budget = StatementBudget.open()) {
+			mngr.loadGroupsByCourseId(crs.getId());
+			try (StatementBudget nested = StatementBudget.open()) {
+				mngr.loadByIds(Arrays.asList(grpOne.getId(), grpTwo.getId()));
+				assertEquals(1, nested.getCount());
+			}
+			assertEquals(2, budget.getCount());
+		}
+
+		try (StatementBudget budget = StatementBudget.open(0, StatementBudget.Mode.FAIL)) {
+			GroupCodeDAO.get().loadByGroupId(grpOne.getId());
+			fail("statement should exceed the budget");
+		} catch (StatementBudget.ExceededException e) { /* expected */ }
+	}
+
+	@Test
+	public void chunkedStatementCountTest() throws PersistenceException {
+		List<Id> grpSetIds = new ArrayList<>();
+		for (int i = 0; i <= JdbcSupport.MAX_IN_LIST; i++) {
+			grpSetIds.add(Id.generateId(Group.DATA_TYPE, Integer.MAX_VALUE - i));
+		}
+		try (StatementBudget budget = StatementBudget.open()) {
+			assertTrue(AdminGroupDAO.get().loadIdsByGroupSetIds(grpSetIds).isEmpty());
+			// one statement per chunk
+			assertEquals(2, budget.getCount("AdminGroupDAO.loadIdsByGroupSetIds"));
+		}
+	}
+
+	@Test
+	public void loadByCourseIdsTest() {
+		AdminGroupManager mngr = AdminGroupManagerFactory.getStrictManager();
+		Map<Id, List<AdminGroup>> groups = mngr.loadGroupsByCourseIds(Arrays.asList(crs.getId(), crs2.getId()));
+		assertEquals(2, groups.size());
+		assertEquals(2, groups.get(crs.getId()).size());
+		assertEquals(0, groups.get(crs2.getId()).size());
+
+		Map<Id, List<AdminGroup>> sets = mngr.loadGroupSetsByCourseIds(Arrays.asList(crs.getId(), crs2.getId()));
+		assertEquals(1, sets.get(crs.getId()).size());
+		assertTrue(sets.get(crs.getId()).get(0).isGroupSet());
+		assertEquals(0, sets.get(crs2.getId()).size());
+	}
+
+	@Test
+	public void loadGroupsByCourseIdPagedTest() {
+		AdminGroupManager mngr = AdminGroupManagerFactory.getStrictManager();
+		for (GroupPage.Order order : GroupPage.Order.values()) {
+			GroupPage first = mngr.loadGroupsByCourseId(crs.getId(), order, 1, null);
+			assertEquals(1, first.getGroups().size());
+			assertTrue(first.hasNext());
+
+			GroupPage second = mngr.loadGroupsByCourseId(crs.getId(), order, 1, first.getNextPageToken());
+			assertEquals(1, second.getGroups().size());
+			assertFalse(first.getGroups().get(0).getId().equals(second.getGroups().get(0).getId()));
+			assertFalse(second.getGroups().get(0).isGroupSet());
+
+			GroupPage all = mngr.loadGroupsByCourseId(crs.getId(), order, 10, null);
+			assertEquals(2, all.getGroups().size());
+			assertFalse(all.hasNext());
+		}
+		assertEquals(1, mngr.loadGroupSetsByCourseId(crs.getId(), GroupPage.Order.TITLE, 10, null).getGroups().size());
+		assertEquals(0, mngr.loadGroupsByCourseId(crs2.getId(), GroupPage.Order.ID, 10, null).getGroups().size());
+	}
+
+	@Test
+	public void loadPagedWithSeveralGroupCodesTest() {
+		// three rows for group one
+		GroupCodeDAO.get().persist(new GroupCode(grpOne, "foo#second"));
+		GroupCodeDAO.get().persist(new GroupCode(grpOne, "foo#third"));
+		AdminGroupManager mngr = AdminGroupManagerFactory.getStrictManager();
+		for (GroupPage.Order order : GroupPage.Order.values()) {
+			GroupPage all = mngr.loadGroupsByCourseId(crs.getId(), order, 2, null);
+			assertEquals(2, all.getGroups().size());
+			assertFalse(all.hasNext());
+
+			GroupPage first = mngr.loadGroupsByCourseId(crs.getId(), order, 1, null);
+			assertEquals(1, first.getGroups().size());
+			assertTrue(first.hasNext());
+			GroupPage second = mngr.loadGroupsByCourseId(crs.getId(), order, 1, first.getNextPageToken());
+			assertEquals(1, second.getGroups().size());
+			assertFalse(second.hasNext());
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void pageTokenOfOtherCourseTest() {
+		AdminGroupManager mngr = AdminGroupManagerFactory.getStrictManager();
+		GroupPage first = mngr.loadGroupsByCourseId(crs.getId(), GroupPage.Order.ID, 1, null);
+		mngr.loadGroupsByCourseId(crs2.getId(), GroupPage.Order.ID, 1, first.getNextPageToken());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void pageTokenOfOtherOrderTest() {
+		AdminGroupManager mngr = AdminGroupManagerFactory.getStrictManager();
+		GroupPage first = mngr.loadGroupsByCourseId(crs.getId(), GroupPage.Order.ID, 1, null);
+		mngr.loadGroupsByCourseId(crs.getId(), GroupPage.Order.TITLE, 1, first.getNextPageToken());
+	}
+
 	@Test
 	public void loadGroupSetsByCourseIdTest() {
 		AdminGroupManager mngr = AdminGroupManagerFactory.getStrictManager();
@@ -7,6 +7,7 @@ import blackboard.persist.course.GroupDbLoader;
 import blackboard.persist.course.impl.GroupDAO;
 import org.junit.Test;
 
+import java.util.Arrays;
 import java.util.List;
 
 import static org.junit.Assert.*;
@@ -75,6 +76,38 @@ public class StrictManagerTest extends ManagerTestSetup {
 		assertEquals(numCodesBefore, numCodesAfter);
 	}
 
+	@Test
+	public void insertDuplicateBatchUidWithIndexTest() throws ValidationException, PersistenceException {
+		int numGroupsBefore = GroupDbLoader.Default.getInstance().loadByCourseId(crs2.getId()).size();
+		int numCodesBefore = GroupCodeDAO.get().loadBySourcedId("foo", "bar").size();
+
+		AdminGroup ag = new AdminGroup();
+		ag.setTitle("Hello, World!");
+		ag.setCourseId(crs2.getId());
+		ag.setSourcedId("foo", "bar");
+
+		assertFalse(GroupCodeDAO.get().hasBatchUidIndex());
+		createBatchUidIndex();
+		try {
+			assertTrue(GroupCodeDAO.get().hasBatchUidIndex());
+			AdminGroupManagerFactory.getIndexedStrictManager().persist(ag);
+			fail("the unique index should reject an already existing batch_uid");
+		} catch (DuplicateBatchUidException e) {
+			/* expected behaviour */
+		} finally {
+			dropBatchUidIndex();
+		}
+		assertFalse(GroupCodeDAO.get().hasBatchUidIndex());
+
+		// the violation rolled back the insert of the group as well
+		assertEquals(numGroupsBefore, GroupDbLoader.Default.getInstance().loadByCourseId(crs2.getId()).size());
+		assertEquals(numCodesBefore, GroupCodeDAO.get().loadBySourcedId("foo", "bar").size());
+		List<AdminGroup> found = AdminGroupManagerFactory.getStrictManager().loadByBatchUid("foo#bar");
+		assertEquals(1, found.size());
+		assertEquals(grpOne.getId(), found.get(0).getId());
+	}
+
+
 	@Test
 	public void updateTest() throws ValidationException, PersistenceException {
 		AdminGroupManager mngr = AdminGroupManagerFactory.getStrictManager();
@@ -104,6 +137,76 @@ public class StrictManagerTest extends ManagerTestSetup {
 	}
 
 
+	@Test
+	public void dirtyTrackingTest() throws ValidationException, PersistenceException {
+		AdminGroupManager mngr = AdminGroupManagerFactory.getStrictManager();
+		AdminGroup ag = mngr.loadById(grpOne.getId());
+		assertFalse(ag.isDirty());
+		ag.setTitle("one");
+		ag.setBatchUid("foo#bar");
+		assertFalse(ag.isDirty());
+
+		ag.setTitle("The Empire Strikes Back");
+		assertTrue(ag.isGroupDirty());
+		assertFalse(ag.isGroupCodeDirty());
+		mngr.persist(ag);
+		// the write could still be rolled back, only a load proves a group clean
+		assertTrue(ag.isDirty());
+		ag = mngr.loadById(grpOne.getId());
+		assertFalse(ag.isDirty());
+		assertEquals("The Empire Strikes Back", ag.getTitle());
+
+		ag.setSourcedId("foo", "baz");
+		assertFalse(ag.isGroupDirty());
+		assertTrue(ag.isGroupCodeDirty());
+		mngr.persist(ag);
+		ag = mngr.loadSingleByBatchUid("foo#baz");
+		assertEquals(grpOne.getId(), ag.getId());
+		assertFalse(ag.isDirty());
+
+		ag.markModified();
+		assertTrue(ag.isGroupDirty());
+		mngr.persist(ag);
+		assertFalse(mngr.loadById(grpOne.getId()).isDirty());
+
+		// a group without group code gets one on the next persist
+		assertTrue(mngr.loadById(grpTwo.getId()).isGroupCodeDirty());
+	}
+
+
+	@Test
+	public void statementCountTest() throws ValidationException, PersistenceException {
+		AdminGroupManager mngr = AdminGroupManagerFactory.getStrictManager();
+		AdminGroup ag = mngr.loadById(grpOne.getId());
+		try (StatementBudget budget = StatementBudget.open(0, StatementBudget.Mode.FAIL)) {
+			// nothing changed, nothing written
+			mngr.persist(ag);
+		}
+
+		ag.setTitle("Return of the Jedi");
+		try (StatementBudget budget = StatementBudget.open()) {
+			mngr.persist(ag);
+			assertEquals(1, budget.getCount());
+			assertEquals(1, budget.getCount("GroupDbPersister.persist"));
+		}
+
+		ag = mngr.loadById(grpOne.getId());
+		ag.setSourcedId("foo", "qux");
+		try (StatementBudget budget = StatementBudget.open()) {
+			mngr.persist(ag);
+			assertEquals(2, budget.getCount());
+			assertEquals(1, budget.getCount("GroupCodeDAO.persist"));
+			assertEquals(1, budget.getCount("GroupCodeDAO.isUnique"));
+		}
+
+		try (StatementBudget budget = StatementBudget.open()) {
+			mngr.deleteGroupById(grpTwo.getId());
+			assertEquals(2, budget.getCount());
+			assertEquals(1, budget.getCount("GroupDbPersister.deleteById"));
+		}
+	}
+
+
 	@Test
 	public void updateDuplicateBatchUidTest() throws ValidationException, PersistenceException {
 		List<GroupCode> codes = GroupCodeDAO.get().loadBySourcedId("foo", "bar");
@@ -161,6 +264,20 @@ public class StrictManagerTest extends ManagerTestSetup {
 		assertEquals(0, codes.size());
 	}
 
+	@Test
+	public void deleteGroupsTest() throws PersistenceException {
+		AdminGroupManager mngr = AdminGroupManagerFactory.getStrictManager();
+		mngr.deleteGroupsByIds(Arrays.asList(grpOne.getId(), grpTwo.getId()));
+
+		for (Id grpId : Arrays.asList(grpOne.getId(), grpTwo.getId())) {
+			try {
+				GroupDbLoader.Default.getInstance().loadById(grpId);
+				fail("deleted group should not exist");
+			} catch (KeyNotFoundException e) { /* expected behaviour */ }
+			assertEquals(0, GroupCodeDAO.get().loadByGroupId(grpId).size());
+		}
+	}
+
 	@Test
 	public void deleteGroupSetTest() throws ValidationException, PersistenceException {
 		AdminGroupManager mngr = AdminGroupManagerFactory.getStrictManager();
@@ -201,6 +318,37 @@ public class StrictManagerTest extends ManagerTestSetup {
 		assertTrue(GroupCodeDAO.get().loadByGroupId(grp.getId()).isEmpty());
 	}
 
+	@Test
+	public void deleteGroupSetsTest() throws ValidationException, PersistenceException {
+		AdminGroupManager mngr = AdminGroupManagerFactory.getStrictManager();
+
+		AdminGroup set = new AdminGroup();
+		set.setTitle("another set");
+		set.setCourseId(crs.getId());
+		set.setGroupSet(true);
+		set.setBatchUid("groupset#43");
+		mngr.persist(set);
+		assertTrue(mngr.addGroupToGroupSet(grpOne.getId(), set.getId()));
+		assertEquals(1, GroupCodeDAO.get().loadByGroupSetId(set.getId()).size());
+
+		AdminGroup single = new AdminGroup();
+		single.setTitle("single");
+		single.setCourseId(crs.getId());
+		single.setBatchUid("group#43");
+		mngr.persist(single);
+
+		mngr.deleteGroupsByIds(Arrays.asList(set.getId(), single.getId()));
+
+		for (Id grpId : Arrays.asList(set.getId(), grpOne.getId(), single.getId())) {
+			try {
+				GroupDbLoader.Default.getInstance().loadById(grpId);
+				fail("deleted group should not exist");
+			} catch (KeyNotFoundException e) { /* expected behaviour */ }
+			assertTrue(GroupCodeDAO.get().loadByGroupId(grpId).isEmpty());
+		}
+		assertNotNull(mngr.loadById(grpTwo.getId()));
+	}
+
 	@Test
 	public void groupToGroupSetTest() {
 		AdminGroupManager mngr = AdminGroupManagerFactory.getStrictManager();
@@ -211,4 +359,72 @@ public class StrictManagerTest extends ManagerTestSetup {
 		mngr.addGroupToGroupSet(grpOne.getId(), grpSet.getId());
 		assertEquals(2, GroupDAO.get().loadGroupSetList(grpSet.getId()).size());
 	}
+
+	@Test
+	public void groupsToGroupSetTest() {
+		AdminGroupManager mngr = AdminGroupManagerFactory.getStrictManager();
+		assertEquals(1, GroupDAO.get().loadGroupSetList(grpSet.getId()).size());
+
+		// grpTwo already is in the group set
+		List<Id> moved = mngr.addGroupsToGroupSet(Arrays.asList(grpOne.getId(), grpTwo.getId()), grpSet.getId());
+		assertEquals(Arrays.asList(grpOne.getId()), moved);
+		assertEquals(2, GroupDAO.get().loadGroupSetList(grpSet.getId()).size());
+
+		moved = mngr.addGroupsToGroupSet(Arrays.asList(grpOne.getId(), grpTwo.getId()), grpSet.getId());
+		assertTrue(moved.isEmpty());
+	}
+
+	@Test
+	public void addGroupsToInvalidGroupSetTest() throws ValidationException, PersistenceException {
+		AdminGroupManager mngr = AdminGroupManagerFactory.getStrictManager();
+		// not a group set
+		assertTrue(mngr.addGroupsToGroupSet(Arrays.asList(grpTwo.getId()), grpOne.getId()).isEmpty());
+
+		AdminGroup other = new AdminGroup();
+		other.setTitle("other course");
+		other.setCourseId(crs2.getId());
+		other.setGroupSet(true);
+		mngr.persist(other);
+		// group set of another course
+		assertTrue(mngr.addGroupsToGroupSet(Arrays.asList(grpOne.getId()), other.getId()).isEmpty());
+
+		assertFalse(Id.isValidPkId(GroupDbLoader.Default.getInstance().loadById(grpOne.getId()).getSetId()));
+		assertEquals(grpSet.getId(), GroupDbLoader.Default.getInstance().loadById(grpTwo.getId()).getSetId());
+	}
+
+	@Test
+	public void persistAllTest() {
+		AdminGroupManager mngr = AdminGroupManagerFactory.getStrictManager();
+
+		AdminGroup one = new AdminGroup();
+		one.setTitle("bulk one");
+		one.setCourseId(crs.getId());
+		one.setSourcedId("bulk", "1");
+
+		AdminGroup two = new AdminGroup();
+		two.setTitle("bulk two");
+		two.setCourseId(crs2.getId());
+		two.setSourcedId("bulk", "2");
+
+		AdminGroup duplicate = new AdminGroup();
+		duplicate.setTitle("bulk duplicate");
+		duplicate.setCourseId(crs2.getId());
+		duplicate.setSourcedId("foo", "bar");
+
+		AdminGroup invalid = new AdminGroup();
+		invalid.setCourseId(crs.getId());
+		invalid.setSourcedId("bulk", "3");
+
+		BulkPersistResult result = mngr.persistAll(Arrays.asList(one, duplicate, two, invalid), 2);
+		assertFalse(result.isSuccess());
+		assertEquals(2, result.getPersisted().size());
+		assertEquals(2, result.getFailures().size());
+		assertTrue(result.getFailures().get(duplicate) instanceof DuplicateBatchUidException);
+		assertTrue(result.getFailures().get(invalid) instanceof ValidationException);
+		assertTrue(duplicate.isNew());
+
+		assertEquals(1, GroupCodeDAO.get().loadBySourcedId("foo", "bar").size());
+		assertEquals(1, GroupCodeDAO.get().loadByGroupId(one.getId()).size());
+		assertEquals("bulk#2", GroupCodeDAO.get().loadByGroupId(two.getId()).get(0).getBatchUid());
+	}
 }